@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core;
+
+import org.slf4j.Logger;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import ubicrypt.core.dto.LocalConfig;
+import ubicrypt.core.dto.RemoteConfig;
+import ubicrypt.core.dto.RetiredDevices;
+import ubicrypt.core.dto.VClock;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Retires the devices that haven't saved any file for longer than the horizon.
+ * A device is retired only if every copy of every file holds the same counter for it, so no version
+ * ordering depends on its entry. Retired devices are folded into the clocks base, see {@link VClock#fold(RetiredDevices)}.
+ * Meant for a pass over all the files of all the active providers.
+ */
+class ClockPruner {
+    private static final Logger log = getLogger(ClockPruner.class);
+    private final LocalConfig localConfig;
+    private final RetiredDevices retired;
+    private final List<RemoteConfig> configs;
+    private final Instant now = Instant.now();
+    private final int[] candidates;
+    private final Set<Integer> disagreeing = ConcurrentHashMap.newKeySet();
+    private final Set<Integer> seen = ConcurrentHashMap.newKeySet();
+    private final Map<Integer, Instant> lastWrites = new HashMap<>();
+
+    ClockPruner(final Duration horizon, final int deviceId, final LocalConfig localConfig, final List<RemoteConfig> configs) {
+        this.localConfig = localConfig;
+        this.retired = localConfig.getRetired();
+        this.configs = configs;
+        configs.forEach(config -> config.getDevices().forEach((device, time) -> lastWrites.merge(device, time, (t1, t2) -> t1.isAfter(t2) ? t1 : t2)));
+        final Instant limit = now.minus(horizon);
+        this.candidates = lastWrites.entrySet().stream()
+                .filter(entry -> entry.getKey() != deviceId && entry.getKey() != retired.liveId(deviceId))
+                .filter(entry -> entry.getValue().isBefore(limit))
+                .filter(entry -> !retired.isRetired(entry.getKey()))
+                .mapToInt(Map.Entry::getKey)
+                .toArray();
+    }
+
+    /**
+     * all the copies of one file
+     */
+    void visit(final List<FileProvenience> group) {
+        group.forEach(fp -> fp.getFile().getVclock().fold(retired));
+        group.forEach(fp -> fp.getFile().getVclock().forEachDevice(device -> {
+            if (!lastWrites.containsKey(device)) {
+                seen.add(device);
+            }
+        }));
+        for (int device : candidates) {
+            final long counter = group.get(0).getFile().getVclock().get(device);
+            for (FileProvenience fp : group) {
+                if (fp.getFile().getVclock().get(device) != counter) {
+                    disagreeing.add(device);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * after the whole pass
+     */
+    void completed() {
+        //devices never seen saving, their inactivity is counted from now
+        final Set<Integer> unknown = seen.stream()
+                .filter(device -> !retired.isRetired(device))
+                .collect(Collectors.toSet());
+        configs.forEach(config -> unknown.forEach(device -> config.getDevices().putIfAbsent(device, now)));
+        final Set<Integer> retiring = Arrays.stream(candidates)
+                .filter(device -> !disagreeing.contains(device))
+                .boxed()
+                .collect(Collectors.toSet());
+        if (!disagreeing.isEmpty()) {
+            log.info("inactive devices:{} not retired, files with different versions from them", disagreeing);
+        }
+        if (retiring.isEmpty()) {
+            return;
+        }
+        log.info("retire devices:{}", retiring);
+        localConfig.getRetiredDevices().addAll(retiring);
+        configs.forEach(config -> {
+            config.getRetiredDevices().addAll(retiring);
+            config.getDevices().keySet().removeAll(retiring);
+        });
+    }
+}
@@ -20,7 +20,6 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.List;
 import java.util.Optional;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
@@ -37,6 +36,7 @@ import ubicrypt.core.dto.VClock;
 import ubicrypt.core.exp.AlreadyManagedException;
 import ubicrypt.core.provider.LocalRepository;
 import ubicrypt.core.provider.ProviderLifeCycle;
+import ubicrypt.core.provider.SharedUpload;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static java.lang.String.format;
@@ -81,11 +81,9 @@ public class FileCommander implements IFileCommander {
                 lfile.setActive(true);
                 lfile.setRemoved(false);
                 lfile.setSize(attrs.size());
-                lfile.getVclock().increment(deviceId);
+                lfile.getVclock().increment(localConfig.getRetired().liveId(deviceId));
                 localConfig.getLocalFiles().add(lfile);
-                subscriber.onNext(Tuple.of(lfile, Observable.merge(providerLifeCycle.currentlyActiveProviders().stream()
-                        .map(hook -> hook.getRepository().save(new FileProvenience(lfile, localRepository)))
-                        .collect(Collectors.toList())).defaultIfEmpty(false).last()));
+                subscriber.onNext(Tuple.of(lfile, saveAll(lfile).defaultIfEmpty(false).last()));
                 subscriber.onCompleted();
             } catch (Exception e) {
                 subscriber.onError(e);
@@ -119,17 +117,14 @@ public class FileCommander implements IFileCommander {
                 subscriber.onError(new RuntimeException(format("path %s not managed", relPath)));
             }
             localFileConsumer.accept(localFile.get());
-            localFile.get().getVclock().increment(deviceId);
+            localFile.get().getVclock().increment(localConfig.getRetired().liveId(deviceId));
             log.debug("submit update active providers num:{}", providerLifeCycle.currentlyActiveProviders().size());
-            final List<Observable<Boolean>> jobs = providerLifeCycle.currentlyActiveProviders().stream()
-                    .map(hook -> hook.getRepository().save(new FileProvenience(localFile.get(), localRepository)))
-                    .collect(Collectors.toList());
-            Observable.merge(jobs).doOnSubscribe(() -> log.debug("update subscribed")).subscribe(subscriber);
+            saveAll(localFile.get()).doOnSubscribe(() -> log.debug("update subscribed")).subscribe(subscriber);
         });
     }
 
     private Optional<LocalFile> findLocalFile(final Path path, final LocalConfig localConfig) {
-        return localConfig.getLocalFiles().stream().filter(file -> file.getPath().equals(path)).findFirst();
+        return localConfig.findLocalFile(path);
     }
 
     @Override
@@ -161,12 +156,21 @@ public class FileCommander implements IFileCommander {
             }
             file.setLastModified(attrs.lastModifiedTime().toInstant());
             file.setSize(attrs.size());
-            file.getVclock().increment(deviceId);
+            file.getVclock().increment(localConfig.getRetired().liveId(deviceId));
 
-            Observable.merge(providerLifeCycle.currentlyActiveProviders().stream()
-                    .map(hook -> hook.getRepository().save(new FileProvenience(file, localRepository)))
-                    .collect(Collectors.toList())).subscribe(subscriber);
+            saveAll(file).subscribe(subscriber);
         });
     }
 
+    /**
+     * Saves the file to all active providers, the content is read and encrypted once.
+     */
+    private Observable<Boolean> saveAll(final LocalFile file) {
+        final SharedUpload shared = new SharedUpload();
+        return Observable.merge(providerLifeCycle.currentlyActiveProviders().stream()
+                .map(hook -> hook.getRepository().save(new FileProvenience(file, localRepository, shared)))
+                .collect(Collectors.toList()))
+                .doAfterTerminate(shared::close);
+    }
+
 }
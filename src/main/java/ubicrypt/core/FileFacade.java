@@ -45,8 +45,7 @@ public class FileFacade implements IFileCommander {
     @Override
     public Observable<Tuple2<LocalFile, Observable<Boolean>>> addFile(final Path absolutePath) {
         final Path relPath = basePath.relativize(absolutePath);
-        final Optional<LocalFile> optFile = localConfig.getLocalFiles().stream()
-                .filter(lfile -> lfile.getPath().equals(relPath)).findFirst();
+        final Optional<LocalFile> optFile = localConfig.findLocalFile(relPath);
         if (optFile.isPresent()) {
             log.debug("file already present:{} ", optFile.get());
             if (optFile.get().isRemoved()) {
@@ -17,8 +17,11 @@ import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 
+import java.util.Optional;
+
 import ubicrypt.core.dto.UbiFile;
 import ubicrypt.core.provider.IRepository;
+import ubicrypt.core.provider.SharedUpload;
 
 import static org.apache.commons.lang3.builder.ToStringStyle.NO_CLASS_NAME_STYLE;
 
@@ -28,10 +31,19 @@ import static org.apache.commons.lang3.builder.ToStringStyle.NO_CLASS_NAME_STYLE
 public class FileProvenience {
     private final UbiFile file;
     private final IRepository origin;
+    private final SharedUpload shared;
 
     public FileProvenience(final UbiFile file, final IRepository origin) {
+        this(file, origin, null);
+    }
+
+    /**
+     * @param shared ciphertext reused among the providers the file is saved to
+     */
+    public FileProvenience(final UbiFile file, final IRepository origin, final SharedUpload shared) {
         this.file = file;
         this.origin = origin;
+        this.shared = shared;
     }
 
     public UbiFile<UbiFile> getFile() {
@@ -42,6 +54,10 @@ public class FileProvenience {
         return origin;
     }
 
+    public Optional<SharedUpload> getShared() {
+        return Optional.ofNullable(shared);
+    }
+
     @Override
     public boolean equals(final Object o) {
         if (this == o) return true;
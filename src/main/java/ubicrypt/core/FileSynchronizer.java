@@ -19,14 +19,18 @@ import com.google.common.collect.Multimap;
 import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 
-import java.util.Arrays;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -42,6 +46,8 @@ import rx.subjects.PublishSubject;
 import rx.subjects.Subject;
 import ubicrypt.core.dto.LocalConfig;
 import ubicrypt.core.dto.RemoteConfig;
+import ubicrypt.core.dto.RetiredDevices;
+import ubicrypt.core.dto.UbiFile;
 import ubicrypt.core.dto.VClock;
 import ubicrypt.core.events.SyncBeginEvent;
 import ubicrypt.core.events.SynchDoneEvent;
@@ -50,11 +56,34 @@ import ubicrypt.core.provider.LocalRepository;
 import ubicrypt.core.provider.ProviderEvent;
 import ubicrypt.core.provider.ProviderHook;
 import ubicrypt.core.provider.ProviderLifeCycle;
+import ubicrypt.core.provider.SharedUpload;
+import ubicrypt.core.util.MergeJoin;
 
 import static org.slf4j.LoggerFactory.getLogger;
 
 public class FileSynchronizer implements Observable.OnSubscribe<Boolean> {
     private static final Logger log = getLogger(FileSynchronizer.class);
+    /**
+     * files classified together and reordered by size before being restored
+     */
+    private static final int RESTORE_WINDOW = 4096;
+    @Value("${sync.restore.parallelism:4}")
+    int restoreParallelism = 4;
+    /**
+     * files waiting for the providers while the merge moves on.
+     * Each one holds a stream on every pipeline stage and the remote saves run one at a time,
+     * so more than the stage threads would only queue holding buffers
+     */
+    @Value("${sync.uploads.inFlight:${pipeline.threads:4}}")
+    int uploadsInFlight = 4;
+    @Value("${vclock.prune.horizonDays:0}")
+    long pruneHorizonDays = 0;
+    @Inject
+    int deviceId;
+    @Value("${sync.provider.gatherMs:2000}")
+    long providerGatherMs = 2000;
+    @Value("${sync.provider.deadlineMs:60000}")
+    long providerDeadlineMs = 60000;
     final private AtomicReference<Observable<Boolean>> cached = new AtomicReference<>();
     @Resource
     @Qualifier("providerEvent")
@@ -72,47 +101,78 @@ public class FileSynchronizer implements Observable.OnSubscribe<Boolean> {
     @Qualifier("appEvents")
     private Subject<Object, Object> appEvents = PublishSubject.create();
 
+    /**
+     * compare every version of a file once, tracking the newest and which versions conflict
+     */
+    static Versions classify(final UUID id, final Collection<FileProvenience> fps) {
+        return classify(id, fps, new RetiredDevices());
+    }
+
+    static Versions classify(final UUID id, final Collection<FileProvenience> fps, final RetiredDevices retired) {
+        final FileProvenience[] versions = fps.toArray(new FileProvenience[fps.size()]);
+        final boolean[] conflicting = new boolean[versions.length];
+        int max = 0;
+        for (int j = 1; j < versions.length; j++) {
+            boolean newer = false;
+            for (int i = 0; i < j; i++) {
+                final VClock.Comparison comparison = versions[i].getFile().getVclock().compare(versions[j].getFile().getVclock(), retired);
+                if (comparison == VClock.Comparison.conflict) {
+                    conflicting[i] = true;
+                    conflicting[j] = true;
+                } else if (i == max && comparison == VClock.Comparison.older) {
+                    newer = true;
+                }
+            }
+            if (newer) {
+                max = j;
+            }
+        }
+        int conflicts = 0;
+        for (boolean conflict : conflicting) {
+            if (conflict) {
+                conflicts++;
+            }
+        }
+        return new Versions(id, versions, versions.length > 0 ? versions[max] : null, conflicts, retired);
+    }
+
+    /**
+     * classify the copies grouped by file, splitting the groups over the fork-join pool
+     */
+    static List<Versions> classify(final List<? extends Collection<FileProvenience>> groups, final RetiredDevices retired) {
+        return groups.parallelStream()
+                .map(group -> classify(group.iterator().next().getFile().getId(), group, retired))
+                .collect(Collectors.toList());
+    }
+
+    static List<Versions> classify(final Multimap<UUID, FileProvenience> all) {
+        return classify(new ArrayList<>(all.asMap().values()), new RetiredDevices());
+    }
+
     /**
      * return only files which are not in conflict
      */
     static Multimap<UUID, FileProvenience> withoutConflicts(final Multimap<UUID, FileProvenience> all) {
-        return all.asMap().entrySet().stream()
-                .filter(entry -> entry.getValue().stream()
-                        .filter(fp -> entry.getValue().stream()
-                                .filter(fp2 -> fp.getFile().compare(fp2.getFile()) != VClock.Comparison.conflict)
-                                .collect(Collectors.toList()).size() == entry.getValue().size())
-                        .collect(Collectors.toList()).size() == entry.getValue().size())
+        return classify(all).stream()
+                .filter(versions -> !versions.isConflicting())
                 .collect(LinkedHashMultimap::create,
-                        (multimap, entry) -> multimap.putAll(entry.getKey(), all.get(entry.getKey())),
+                        (multimap, versions) -> multimap.putAll(versions.getId(), all.get(versions.getId())),
                         (m1, m2) -> m1.putAll(m2));
     }
 
     static HashMap<UUID, FileProvenience> max(final Multimap<UUID, FileProvenience> input) {
-        return input.keySet().stream()
-                .collect(HashMap::new,
-                        (map, uuid) -> map.put(uuid, input.get(uuid).stream().max((f1, f2) -> {
-                            switch (f1.getFile().getVclock().compare(f2.getFile().getVclock())) {
-                                case newer:
-                                    return 1;
-                                case older:
-                                    return -1;
-                                default:
-                                    return 0;
-                            }
-                        }).get()), HashMap::putAll);
+        return classify(input).stream()
+                .collect(HashMap::new, (map, versions) -> map.put(versions.getId(), versions.getMax()), HashMap::putAll);
     }
 
     /**
      * return only files which are in conflict
      */
     static Multimap<UUID, FileProvenience> conflicts(final Multimap<UUID, FileProvenience> all) {
-        return all.asMap().entrySet().stream()
-                .filter(entry -> entry.getValue().stream()
-                        .filter(fp -> entry.getValue().stream()
-                                .filter(fp2 -> fp.getFile().compare(fp2.getFile()) == VClock.Comparison.conflict)
-                                .collect(Collectors.toList()).size() == 0).collect(Collectors.toList()).size() == 0)
+        return classify(all).stream()
+                .filter(Versions::isAllConflicting)
                 .collect(LinkedHashMultimap::create,
-                        (multimap, entry) -> multimap.putAll(entry.getKey(), all.get(entry.getKey())),
+                        (multimap, versions) -> multimap.putAll(versions.getId(), all.get(versions.getId())),
                         (m1, m2) -> m1.putAll(m2));
     }
 
@@ -137,61 +197,166 @@ public class FileSynchronizer implements Observable.OnSubscribe<Boolean> {
     }
 
     private Observable<Boolean> create() {
-        return packFilesById().flatMap(all -> {
-            //conflicting versions
-            //TODO: manage conflicts manually
-            final Multimap<UUID, FileProvenience> noConflicts = FileSynchronizer.withoutConflicts(all);
-            //newer files per id
-            final Map<UUID, FileProvenience> max = FileSynchronizer.max(noConflicts);
-
-            //overwrite file to local
-            return localChain(max.entrySet().iterator(), Observable.just(true))
-                    .flatMap(aVoid ->
-                            //copy to all other providers
-                            Observable.merge(providers.currentlyActiveProviders().stream()
-                                    .map(hook -> providerChain(max.entrySet(), hook))
-                                    .collect(Collectors.toList()))
-                                    .doOnCompleted(() -> log.info("file synchronization completed")));
-        });
-    }
-
-    private Observable<Boolean> providerChain(final Set<Map.Entry<UUID, FileProvenience>> entries,
-                                              final ProviderHook hook) {
-        return Observable.merge(entries.stream()
-                .map(entry -> {
-                    final IRepository repo = entry.getValue().getFile().isGhost() ? entry.getValue().getOrigin() : localRepository;
-                    return hook.getRepository().save(new FileProvenience(entry.getValue().getFile(), repo));
+        //a late provider starts a further round, including the configs already arrived
+        return configRounds()
+                .concatMap(this::synchronize)
+                .doOnCompleted(() -> log.info("file synchronization completed"));
+    }
+
+    private Observable<Boolean> synchronize(final List<Tuple2<ProviderHook, RemoteConfig>> configs) {
+        log.debug("synchronize with providers:{}", configs.stream().map(Tuple2::getT1).collect(Collectors.toList()));
+        //devices retired by the other devices count here too
+        configs.forEach(config -> localConfig.getRetiredDevices().addAll(config.getT2().getRetiredDevices()));
+        Observable<List<FileProvenience>> groups = groupFilesById(configs);
+        //clocks are pruned only when every active provider takes part
+        if (pruneHorizonDays > 0 && configs.size() == providers.currentlyActiveProviders().size()) {
+            final ClockPruner pruner = new ClockPruner(Duration.ofDays(pruneHorizonDays), deviceId, localConfig,
+                    configs.stream().map(Tuple2::getT2).collect(Collectors.toList()));
+            groups = groups.doOnNext(pruner::visit).doOnCompleted(pruner::completed);
+        }
+        return groups
+                //each window classified in parallel
+                .buffer(RESTORE_WINDOW)
+                .concatMapIterable(window -> {
+                    final List<Versions> ret = classify(window, localConfig.getRetired()).stream()
+                            .filter(versions -> {
+                                //TODO: manage conflicts manually
+                                if (versions.isConflicting()) {
+                                    log.info("file in conflict:{}", versions.getId());
+                                    return false;
+                                }
+                                return true;
+                            })
+                            .collect(Collectors.toList());
+                    //overwrite file to local, smaller files first within each window
+                    ret.sort(Comparator.comparingLong(versions -> versions.getMax().getFile().getSize()));
+                    return ret;
                 })
-                .collect(Collectors.toList()));
+                .flatMap(versions -> restore(versions.getMax()).map(restored -> versions), restoreParallelism)
+                //copy to all other providers
+                .flatMap(versions -> upload(versions, configs), uploadsInFlight);
+    }
+
+    private Observable<Boolean> restore(final FileProvenience fp) {
+        return (fp.getOrigin().isLocal() || fp.getFile().isGhost())
+                ? Observable.just(true) : localRepository.save(fp).defaultIfEmpty(false).last();
     }
 
-    private Observable<Boolean> localChain(final Iterator<Map.Entry<UUID, FileProvenience>> it,
-                                           final Observable<Boolean> observable) {
-        if (!it.hasNext()) {
-            return observable.defaultIfEmpty(false).last();
+    private Observable<Boolean> upload(final Versions versions, final List<Tuple2<ProviderHook, RemoteConfig>> configs) {
+        final FileProvenience fp = versions.getMax();
+        final IRepository repo = fp.getFile().isGhost() ? fp.getOrigin() : localRepository;
+        final List<IRepository> targets = configs.stream()
+                .map(config -> (IRepository) config.getT1().getRepository())
+                .filter(repository -> !versions.isCurrent(repository))
+                .collect(Collectors.toList());
+        if (targets.isEmpty()) {
+            return Observable.empty();
         }
-        final Map.Entry<UUID, FileProvenience> entry = it.next();
-        return localChain(it, observable.flatMap(n -> (entry.getValue().getOrigin().isLocal() || entry.getValue().getFile().isGhost())
-                ? Observable.just(true) : localRepository.save(entry.getValue())));
+        //every file is read and encrypted once for all providers
+        final SharedUpload shared = new SharedUpload();
+        return Observable.merge(targets.stream()
+                .map(repository -> repository.save(new FileProvenience(fp.getFile(), repo, shared)))
+                .collect(Collectors.toList()))
+                .doAfterTerminate(shared::close);
     }
 
     public Observable<Multimap<UUID, FileProvenience>> packFilesById() {
-        List<Observable<Tuple2<ProviderHook, RemoteConfig>>> obconfigs = providers.currentlyActiveProviders().stream().map(provider -> Observable.create(provider.getAcquirer()).map(releaser -> {
-            releaser.getReleaser().call();
-            return Tuple.of(provider, releaser.getRemoteConfig());
-        })).collect(Collectors.toList());
-        return Observable.zip(obconfigs, args -> {
-            final Multimap<UUID, FileProvenience> all = LinkedHashMultimap.create();
-            //add local files
-            localConfig.getLocalFiles().stream()
-                    .filter(Utils.ignoredFiles)
-                    .forEach(file -> all.put(file.getId(), new FileProvenience(file, localRepository)));
-            //add all remote files
-            Tuple2<ProviderHook, RemoteConfig>[] configs = Arrays.copyOf(args, args.length, Tuple2[].class);
-            Stream.of(configs).forEach(config -> config.getT2().getRemoteFiles().forEach(file -> all.put(file.getId(), new FileProvenience(file, config.getT1().getRepository()))));
-            return all;
-        });
+        return configRounds()
+                .lastOrDefault(Collections.emptyList())
+                .flatMap(this::groupFilesById)
+                .collect(LinkedHashMultimap::create, (multimap, group) -> multimap.putAll(group.get(0).getFile().getId(), group));
     }
 
+    /**
+     * configs of the active providers, growing as they arrive.
+     * The first round holds the ones arrived within the gather time, a provider not ready by the deadline is left out.
+     */
+    private Observable<List<Tuple2<ProviderHook, RemoteConfig>>> configRounds() {
+        final List<Observable<Tuple2<ProviderHook, RemoteConfig>>> obconfigs = providers.currentlyActiveProviders().stream()
+                .map(provider -> Observable.create(provider.getAcquirer())
+                        .doOnNext(releaser -> releaser.getReleaser().call())
+                        .map(releaser -> Tuple.of(provider, releaser.getRemoteConfig()))
+                        .timeout(providerDeadlineMs, TimeUnit.MILLISECONDS)
+                        .onErrorResumeNext(err -> {
+                            log.warn("provider:{} not synchronized, config not available: {}", provider, err.toString());
+                            return Observable.empty();
+                        }))
+                .collect(Collectors.toList());
+        if (obconfigs.isEmpty()) {
+            return Observable.empty();
+        }
+        return Observable.merge(obconfigs)
+                .buffer(providerGatherMs, TimeUnit.MILLISECONDS, obconfigs.size())
+                .filter(arrived -> !arrived.isEmpty())
+                .scan((configs, arrived) -> {
+                    final List<Tuple2<ProviderHook, RemoteConfig>> ret = new ArrayList<>(configs);
+                    ret.addAll(arrived);
+                    return ret;
+                });
+    }
+
+    /**
+     * merge join of local and remote files, each source sorted by id
+     */
+    private Observable<List<FileProvenience>> groupFilesById(final List<Tuple2<ProviderHook, RemoteConfig>> configs) {
+        final List<Iterator<FileProvenience>> sources = new ArrayList<>(configs.size() + 1);
+        //local files
+        sources.add(sortedById(localConfig.getLocalFiles().stream().filter(Utils.ignoredFiles), localRepository));
+        //remote files
+        configs.forEach(config -> sources.add(sortedById(config.getT2().getRemoteFiles().stream(), config.getT1().getRepository())));
+        return Observable.from(() -> new MergeJoin<>(sources, (FileProvenience fp) -> fp.getFile().getId()));
+    }
+
+    private static Iterator<FileProvenience> sortedById(final Stream<? extends UbiFile> files, final IRepository repository) {
+        return files.sorted(Comparator.comparing(UbiFile::getId))
+                .map(file -> new FileProvenience(file, repository))
+                .iterator();
+    }
+
+    /**
+     * versions of one file: the newest one and how many conflict with another
+     */
+    static final class Versions {
+        private final UUID id;
+        private final FileProvenience[] versions;
+        private final FileProvenience max;
+        private final int conflicts;
+        private final RetiredDevices retired;
 
+        Versions(final UUID id, final FileProvenience[] versions, final FileProvenience max, final int conflicts, final RetiredDevices retired) {
+            this.id = id;
+            this.versions = versions;
+            this.max = max;
+            this.conflicts = conflicts;
+            this.retired = retired;
+        }
+
+        UUID getId() {
+            return id;
+        }
+
+        FileProvenience getMax() {
+            return max;
+        }
+
+        boolean isConflicting() {
+            return conflicts > 0;
+        }
+
+        boolean isAllConflicting() {
+            return conflicts == versions.length;
+        }
+
+        /**
+         * the repository already holds the newest version
+         */
+        boolean isCurrent(final IRepository repository) {
+            for (FileProvenience version : versions) {
+                if (version.getOrigin() == repository && version.getFile().compare(max.getFile(), retired) == VClock.Comparison.equal) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
 }
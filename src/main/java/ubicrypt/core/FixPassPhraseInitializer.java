@@ -15,7 +15,6 @@ package ubicrypt.core;
 
 import com.google.common.base.Throwables;
 
-import org.bouncycastle.openpgp.PGPException;
 import org.bouncycastle.openpgp.PGPKeyPair;
 import org.bouncycastle.openpgp.PGPPrivateKey;
 import org.bouncycastle.openpgp.PGPSecretKeyRing;
@@ -28,19 +27,18 @@ import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Collections;
+import java.util.function.UnaryOperator;
 
 import reactor.fn.tuple.Tuple;
 import reactor.fn.tuple.Tuple2;
 import ubicrypt.core.crypto.PGPEC;
+import ubicrypt.core.crypto.PGPService;
 import ubicrypt.core.dto.LocalConfig;
 
 import static ubicrypt.core.Utils.configFile;
-import static ubicrypt.core.Utils.marshall;
-import static ubicrypt.core.Utils.marshallIs;
+import static ubicrypt.core.Utils.configLogFile;
 import static ubicrypt.core.Utils.securityFile;
 import static ubicrypt.core.Utils.write;
-import static ubicrypt.core.crypto.PGPEC.encrypt;
 
 public class FixPassPhraseInitializer implements ApplicationContextInitializer<ConfigurableApplicationContext> {
     private static final Logger log = LoggerFactory.getLogger(FixPassPhraseInitializer.class);
@@ -86,20 +84,17 @@ public class FixPassPhraseInitializer implements ApplicationContextInitializer<C
         final boolean encrypt = Boolean.valueOf(applicationContext.getEnvironment().getProperty("pgp.enabled", "true"));
 
         final Path configFile = configFile();
-        final LocalConfig config;
-        if (!configFile.toFile().exists()) {
-            config = new LocalConfig();
-            write(configFile,
-                    encrypt ? encrypt(Collections.singletonList(keyPair.getPublicKey()), marshallIs(config)) :
-                            new ByteArrayInputStream(marshall(config))).subscribe();
-        } else {
-            InputStream configIs = null;
-            try {
-                configIs = encrypt ? PGPEC.decrypt(keyPair.getPrivateKey(), Utils.readIs(configFile)) : Utils.readIs(configFile);
-            } catch (final PGPException e) {
-                Throwables.propagate(e);
+        final UnaryOperator<InputStream> decrypt = encrypt ? new PGPService(keyPair, null)::decrypt : UnaryOperator.identity();
+        //a log without a readable snapshot fails, the legacy config misses the changes since the migration
+        LocalConfig config = LocalConfigLog.replay(configLogFile(), decrypt);
+        if (config == null) {
+            if (!configFile.toFile().exists()) {
+                // the persistor writes it as the first snapshot of the log
+                config = new LocalConfig();
+            } else {
+                //whole config written by earlier versions, plain pgp or envelope
+                config = Utils.umarshall(decrypt.apply(Utils.readIs(configFile)), LocalConfig.class);
             }
-            config = Utils.umarshall(configIs, LocalConfig.class);
         }
         applicationContext.getBeanFactory().registerSingleton("ubiqConfig", config);
     }
@@ -13,7 +13,6 @@
  */
 package ubicrypt.core;
 
-import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -21,11 +20,15 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.EnvironmentAware;
 import org.springframework.core.env.Environment;
 
-import java.io.ByteArrayInputStream;
-import java.nio.file.Files;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -49,6 +52,18 @@ public class InitLocalConfPersistor implements Observable.OnSubscribe<Void>, Env
     private Environment env;
     @Value("${pgp.enabled:true}")
     private Boolean encrypt = true;
+    @Value("${localConf.log.compactMinBytes:1048576}")
+    long compactMinBytes = 1 << 20;
+    @Value("${localConf.persist.windowMs:1000}")
+    long windowMs = 1000;
+    /**
+     * the one in the ubicrypt folder if not set
+     */
+    Path logFile;
+    private LocalConfigLog configLog;
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
 
     @PostConstruct
     public void init() {
@@ -56,21 +71,69 @@ public class InitLocalConfPersistor implements Observable.OnSubscribe<Void>, Env
             encrypt = Boolean.valueOf(env.getProperty("pgp.enabled", "true"));
         }
         log.info("local conf persistor started, pgp enable:{}", encrypt);
-        executorService.scheduleWithFixedDelay(() -> {
-            try {
-                final byte[] clearBytes = Utils.marshall(localConfig);
-                Files.write(Utils.configFile(),
-                        encrypt ? IOUtils.toByteArray(ipgpService.encrypt(new ByteArrayInputStream(clearBytes))) : clearBytes);
-            } catch (final Exception e) {
-                log.error(e.getMessage(), e);
+        configLog = new LocalConfigLog(logFile != null ? logFile : Utils.configLogFile(), encrypt ? ipgpService::encrypt : UnaryOperator.<InputStream>identity());
+        localConfig.onChange(this::changed);
+        // the first round rewrites the log as a snapshot, then only the changes are appended
+        executorService.schedule(this::persist, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * the changes within windowMs from the first one are written together
+     */
+    private void changed() {
+        if (!pending.compareAndSet(false, true)) {
+            skipped.incrementAndGet();
+            return;
+        }
+        try {
+            executorService.schedule(this::persist, windowMs, TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException e) {
+            //shutting down, the last round is written on close
+        }
+    }
+
+    private void persist() {
+        pending.set(false);
+        try {
+            if (configLog.shouldCompact(compactMinBytes)) {
+                configLog.compact(localConfig);
+                writes.incrementAndGet();
+            } else if (configLog.append(localConfig)) {
+                writes.incrementAndGet();
+            } else {
+                skipped.incrementAndGet();
             }
-        }, interval, 1, TimeUnit.SECONDS);
+        } catch (final Exception e) {
+            log.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * rounds written to the log
+     */
+    public long getWrites() {
+        return writes.get();
+    }
+
+    /**
+     * changes folded into an already pending round, and rounds with nothing to write
+     */
+    public long getSkipped() {
+        return skipped.get();
     }
 
     @PreDestroy
     public void close() {
         log.info("shutdown local config persistor");
         executorService.shutdown();
+        try {
+            executorService.awaitTermination(10, TimeUnit.SECONDS);
+            persist();
+            configLog.close();
+        } catch (final Exception e) {
+            log.error(e.getMessage(), e);
+        }
+        log.info("local config writes:{}, skipped:{}", writes, skipped);
     }
 
     @Override
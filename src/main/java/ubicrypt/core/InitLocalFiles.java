@@ -24,10 +24,12 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.util.function.Consumer;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
 import javax.inject.Inject;
 
 import ubicrypt.core.dto.LocalConfig;
 import ubicrypt.core.dto.LocalFile;
+import ubicrypt.core.dto.RetiredDevices;
 
 /**
  * increment vclock for each local file has been modified before startup.
@@ -40,6 +42,8 @@ public class InitLocalFiles implements Consumer<LocalFile> {
     Path basePath;
     @Inject
     int deviceId;
+    @Resource
+    RetiredDevices retiredDevices = new RetiredDevices();
 
     @PostConstruct
     public void init() {
@@ -71,7 +75,7 @@ public class InitLocalFiles implements Consumer<LocalFile> {
             log.error(e.getMessage(), e);
         }
         if (modified) {
-            localFile.getVclock().increment(deviceId);
+            localFile.getVclock().increment(retiredDevices.liveId(deviceId));
         }
     }
 }
@@ -0,0 +1,286 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core;
+
+import com.google.common.io.CountingInputStream;
+import com.google.common.primitives.Ints;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.UnaryOperator;
+import java.util.zip.CRC32;
+
+import ubicrypt.core.dto.LocalConfig;
+import ubicrypt.core.dto.LocalConfigEntry;
+import ubicrypt.core.dto.LocalFile;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Append-only log of the local config: a snapshot of the whole config followed by the changes since.
+ * Only the files the config reports as changed are appended, an idle round does not visit the files.
+ * Each record is [length][encrypted entry][crc32 of both], a torn or corrupted tail left by a crash is dropped on replay.
+ * Compaction writes a fresh snapshot aside and renames it over the log.
+ */
+public class LocalConfigLog implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(LocalConfigLog.class);
+    private final Path file;
+    private final UnaryOperator<InputStream> encrypt;
+    private FileChannel channel;
+    private byte[] settings;
+    private long snapshotBytes;
+    private long appendedBytes;
+
+    public LocalConfigLog(final Path file, final UnaryOperator<InputStream> encrypt) {
+        this.file = file;
+        this.encrypt = encrypt;
+    }
+
+    /**
+     * config rebuilt from the log, null if there is no log.
+     * A log without a readable snapshot at its head is restored from a snapshot left by an interrupted compaction,
+     * failing that it is an error: the changes since the legacy config are in the log only.
+     */
+    public static LocalConfig replay(final Path file, final UnaryOperator<InputStream> decrypt) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        final LocalConfig config = read(file, decrypt);
+        if (config != null) {
+            return config;
+        }
+        final Path tmp = tmp(file);
+        final LocalConfig snapshot = Files.exists(tmp) ? read(tmp, decrypt) : null;
+        if (snapshot == null) {
+            throw new IllegalStateException("local config log:" + file + " has no readable snapshot");
+        }
+        log.error("local config log:{} has no readable snapshot, restored from:{}", file, tmp);
+        return snapshot;
+    }
+
+    private static LocalConfig read(final Path file, final UnaryOperator<InputStream> decrypt) {
+        LocalConfig config = null;
+        int records = 0;
+        try (final CountingInputStream counter = new CountingInputStream(new BufferedInputStream(Files.newInputStream(file)));
+             final DataInputStream is = new DataInputStream(counter)) {
+            final long size = Files.size(file);
+            byte[] record;
+            while ((record = next(is, size - counter.getCount())) != null) {
+                final LocalConfigEntry entry = Utils.umarshall(decrypt.apply(new ByteArrayInputStream(record)), LocalConfigEntry.class);
+                if (config == null) {
+                    if (entry.getConfig() == null) {
+                        log.warn("local config log:{} does not start with a snapshot", file);
+                        return null;
+                    }
+                    config = entry.getConfig();
+                } else {
+                    apply(config, entry);
+                }
+                records++;
+            }
+        } catch (final IOException e) {
+            log.warn("error reading local config log:{}, {}", file, e.getMessage());
+        }
+        log.info("local config log:{} replayed, records:{}", file, records);
+        return config;
+    }
+
+    private static Path tmp(final Path file) {
+        return file.resolveSibling(file.getFileName() + ".tmp");
+    }
+
+    /**
+     * @param available bytes left in the log, bounding the record length before allocating it
+     */
+    private static byte[] next(final DataInputStream is, final long available) throws IOException {
+        try {
+            final int length = is.readInt();
+            if (length < 0 || length > available - 12) {
+                log.warn("local config log, corrupted record length:{}, available:{}", length, available);
+                return null;
+            }
+            final byte[] record = new byte[length];
+            is.readFully(record);
+            final long crc = is.readLong();
+            if (crc != crc(length, record)) {
+                log.warn("local config log, corrupted record of length:{}", length);
+                return null;
+            }
+            return record;
+        } catch (final EOFException e) {
+            return null;
+        }
+    }
+
+    private static void apply(final LocalConfig config, final LocalConfigEntry entry) {
+        if (entry.getConfig() != null) {
+            config.setProviders(entry.getConfig().getProviders());
+            config.setTrackedFolders(entry.getConfig().getTrackedFolders());
+            config.setOwnedPKs(entry.getConfig().getOwnedPKs());
+            config.setRetiredDevices(entry.getConfig().getRetiredDevices());
+        }
+        entry.getRemoved().forEach(id -> config.findLocalFile(id).ifPresent(config.getLocalFiles()::remove));
+        entry.getFiles().forEach(file -> {
+            if (!config.findLocalFile(file.getId()).map(current -> current.copyFrom(file)).isPresent()) {
+                config.getLocalFiles().add(file);
+            }
+        });
+    }
+
+    private static LocalConfig settingsOf(final LocalConfig config) {
+        final LocalConfig ret = new LocalConfig();
+        ret.setProviders(config.getProviders());
+        ret.setTrackedFolders(config.getTrackedFolders());
+        ret.setOwnedPKs(config.getOwnedPKs());
+        ret.setRetiredDevices(config.getRetiredDevices());
+        return ret;
+    }
+
+    private static long crc(final int length, final byte[] bytes) {
+        final CRC32 crc = new CRC32();
+        crc.update(Ints.toByteArray(length));
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    private ByteBuffer record(final LocalConfigEntry entry) throws IOException {
+        final byte[] sealed = IOUtils.toByteArray(encrypt.apply(new ByteArrayInputStream(Utils.marshall(entry))));
+        final ByteBuffer ret = ByteBuffer.allocate(sealed.length + 12);
+        ret.putInt(sealed.length).put(sealed).putLong(crc(sealed.length, sealed));
+        ret.flip();
+        return ret;
+    }
+
+    private static void write(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    /**
+     * append the settings and the files changed since the last write, false if nothing changed
+     */
+    public synchronized boolean append(final LocalConfig config) throws IOException {
+        if (channel == null) {
+            compact(config);
+            return true;
+        }
+        final LocalConfig currentSettings = settingsOf(config);
+        final byte[] settingsBytes = Utils.marshall(currentSettings);
+        final boolean settingsChanged = !Arrays.equals(settings, settingsBytes);
+        // drained before marshalling, a change in between is marked again and written next time
+        final List<UUID> ids = config.drainChangedFiles();
+        if (!settingsChanged && ids.isEmpty()) {
+            return false;
+        }
+        final List<LocalFile> changed = new ArrayList<>();
+        final List<UUID> removed = new ArrayList<>();
+        ids.forEach(id -> {
+            final Optional<LocalFile> file = config.findLocalFile(id);
+            if (file.isPresent()) {
+                changed.add(file.get());
+            } else {
+                removed.add(id);
+            }
+        });
+        final LocalConfigEntry entry = new LocalConfigEntry();
+        if (settingsChanged) {
+            entry.setConfig(currentSettings);
+        }
+        entry.setFiles(changed);
+        entry.setRemoved(removed);
+        try {
+            final ByteBuffer record = record(entry);
+            final long size = record.remaining();
+            write(channel, record);
+            appendedBytes += size;
+        } catch (IOException | RuntimeException e) {
+            config.markChangedFiles(ids);
+            //a partial record would hide the following ones, the next round rewrites the snapshot
+            close();
+            throw e;
+        }
+        settings = settingsBytes;
+        log.debug("local config log, changed files:{}, removed:{}, settings:{}", changed.size(), removed.size(), settingsChanged);
+        return true;
+    }
+
+    /**
+     * rewrite the log as a single snapshot of the config
+     */
+    public synchronized void compact(final LocalConfig config) throws IOException {
+        final byte[] settingsBytes = Utils.marshall(settingsOf(config));
+        final List<UUID> ids = config.drainChangedFiles();
+        final long size;
+        try {
+            final LocalConfigEntry entry = new LocalConfigEntry();
+            entry.setConfig(config);
+            final ByteBuffer record = record(entry);
+            size = record.remaining();
+            final Path tmp = tmp(file);
+            try (final FileChannel out = FileChannel.open(tmp, CREATE, WRITE, TRUNCATE_EXISTING)) {
+                write(out, record);
+            }
+            close();
+            Files.move(tmp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+            channel = FileChannel.open(file, WRITE, APPEND);
+        } catch (IOException | RuntimeException e) {
+            config.markChangedFiles(ids);
+            throw e;
+        }
+        settings = settingsBytes;
+        snapshotBytes = size;
+        appendedBytes = 0;
+        log.debug("local config log compacted, files:{}, bytes:{}", config.getLocalFiles().size(), size);
+    }
+
+    /**
+     * the changes appended outgrow both the snapshot and minBytes
+     */
+    public synchronized boolean shouldCompact(final long minBytes) {
+        return appendedBytes > Math.max(minBytes, snapshotBytes);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -15,38 +15,74 @@ package ubicrypt.core;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.TimeUnit;
 
 import rx.Observable;
 import rx.internal.operators.BufferUntilSubscriber;
 
+/**
+ * Publishes the bytes read so far, every sampled interval of bytes or time and once at the end.
+ * Meant to be read by one thread at a time.
+ */
 public class MonitorInputStream extends InputStream {
+    private static final long defaultSampleNanos = TimeUnit.MILLISECONDS.toNanos(250);
     private final InputStream inputStream;
-    private final AtomicLong counter = new AtomicLong(0);
     private final BufferUntilSubscriber<Long> subscriber = BufferUntilSubscriber.create();
-    private int chunkLength = 1 << 16;
+    private final long sampleBytes;
+    private final long sampleNanos;
+    private long counter = 0;
+    private long lastCounter = 0;
+    private long lastNanos = System.nanoTime();
+    private boolean ended = false;
 
     public MonitorInputStream(final InputStream inputStream) {
-        this.inputStream = inputStream;
+        this(inputStream, 1 << 20);
     }
 
+    /**
+     * @param chunkLength bytes between progress notifications
+     */
     public MonitorInputStream(final InputStream inputStream, final int chunkLength) {
+        this(inputStream, chunkLength, defaultSampleNanos);
+    }
+
+    /**
+     * @param sampleBytes bytes after which progress is notified
+     * @param sampleNanos time after which progress is notified, if any byte has been read
+     */
+    public MonitorInputStream(final InputStream inputStream, final long sampleBytes, final long sampleNanos) {
         this.inputStream = inputStream;
-        this.chunkLength = chunkLength;
+        this.sampleBytes = sampleBytes;
+        this.sampleNanos = sampleNanos;
+    }
+
+    private void progress(final int read) {
+        if (read < 0) {
+            if (!ended) {
+                ended = true;
+                subscriber.onNext(counter);
+                subscriber.onCompleted();
+            }
+            return;
+        }
+        counter += read;
+        final long delta = counter - lastCounter;
+        if (delta == 0) {
+            return;
+        }
+        final long now = System.nanoTime();
+        if (delta >= sampleBytes || now - lastNanos >= sampleNanos) {
+            lastCounter = counter;
+            lastNanos = now;
+            subscriber.onNext(counter);
+        }
     }
 
     @Override
     public int read() throws IOException {
         try {
             final int ret = inputStream.read();
-            if (ret == -1) {
-                subscriber.onNext(counter.get());
-                subscriber.onCompleted();
-            } else {
-                if ((counter.incrementAndGet() % chunkLength) == 0) {
-                    subscriber.onNext(counter.get());
-                }
-            }
+            progress(ret == -1 ? -1 : 1);
             return ret;
         } catch (final IOException e) {
             subscriber.onError(e);
@@ -54,6 +90,28 @@ public class MonitorInputStream extends InputStream {
         }
     }
 
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        try {
+            final int ret = inputStream.read(b, off, len);
+            progress(ret);
+            return ret;
+        } catch (final IOException e) {
+            subscriber.onError(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public int available() throws IOException {
+        return inputStream.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        inputStream.close();
+    }
+
     public Observable<Long> monitor() {
         return subscriber;
     }
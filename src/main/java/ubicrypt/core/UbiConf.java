@@ -38,7 +38,9 @@ import javafx.scene.image.ImageView;
 import rx.Observable;
 import rx.subjects.PublishSubject;
 import rx.subjects.Subject;
+import ubicrypt.core.crypto.AESGCM;
 import ubicrypt.core.crypto.PGPService;
+import ubicrypt.core.dto.Key;
 import ubicrypt.core.dto.LocalConfig;
 import ubicrypt.core.dto.UbiFile;
 import ubicrypt.core.provider.LocalRepository;
@@ -61,10 +63,17 @@ public class UbiConf {
     PGPKeyPair keyPair;
     @Inject
     LocalConfig localConfig;
+    @Value("${crypto.engine:bc}")
+    AESGCM.Engine cryptoEngine;
+    @Value("${crypto.format:stream}")
+    Key.Format cryptoFormat;
 
 
     @PostConstruct
     public void init() {
+        AESGCM.setEngine(cryptoEngine);
+        AESGCM.setFormat(cryptoFormat);
+        log.info("crypto engine:{}, format:{}", cryptoEngine, cryptoFormat);
         log.debug("keyPair:{}", keyPair);
         log.debug("ubiqConfig:{}", localConfig);
     }
@@ -44,8 +44,6 @@ import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
-import java.nio.channels.AsynchronousFileChannel;
-import java.nio.channels.CompletionHandler;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
@@ -61,18 +59,19 @@ import java.util.Set;
 import java.util.Spliterator;
 import java.util.Spliterators;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 import rx.Observable;
-import rx.Subscriber;
 import rx.functions.Action1;
+import rx.schedulers.Schedulers;
 import ubicrypt.UbiCrypt;
 import ubicrypt.core.crypto.PGPEC;
 import ubicrypt.core.dto.UbiFile;
 import ubicrypt.core.exp.NotFoundException;
+import ubicrypt.core.util.BufferPool;
+import ubicrypt.core.util.ChannelInputStream;
 import ubicrypt.core.util.PGPKValue;
 import ubicrypt.core.util.PGPKValueDeserializer;
 import ubicrypt.core.util.PGPKValueSerializer;
@@ -120,142 +119,64 @@ public class Utils {
         return write(target, new ByteArrayInputStream(bytes));
     }
 
-    private static void unsubscribe(final Subscriber<? super Long> subscriber, final InputStream is, final FileLock lock) {
-        close(is, lock);
-        if (!subscriber.isUnsubscribed()) {
-            subscriber.onCompleted();
-        }
-    }
-
-    private static void close(final InputStream is, final FileLock lock) {
-        try {
-            lock.release();
-        } catch (final IOException e) {
-        }
-        try {
-            is.close();
-        } catch (final IOException e1) {
-
-        }
-    }
-
+    /**
+     * Writes the stream under an exclusive lock, replacing the previous content.
+     *
+     * @return bytes written so far, after every chunk
+     */
     public static Observable<Long> write(final Path fullPath, final InputStream inputStream) {
-        return Observable.create(subscriber -> {
-            try {
-                final AtomicLong offset = new AtomicLong(0);
-                final AsynchronousFileChannel afc = AsynchronousFileChannel.open(fullPath, StandardOpenOption.WRITE,
-                        StandardOpenOption.CREATE);
-                afc.lock(new Object(), new CompletionHandler<FileLock, Object>() {
-                    @Override
-                    public void completed(final FileLock lock, final Object attachment) {
-                        //acquired lock
-                        final byte[] buf = new byte[1 << 16];
-                        try {
-                            final int len = inputStream.read(buf);
-                            if (len == -1) {
-                                unsubscribe(subscriber, inputStream, lock);
-                                return;
-                            }
-                            afc.write(ByteBuffer.wrap(Arrays.copyOfRange(buf, 0, len)), offset.get(), null, new CompletionHandler<Integer, Object>() {
-                                @Override
-                                public void completed(final Integer result, final Object attachment) {
-                                    //written chunk of bytes
-                                    subscriber.onNext(offset.addAndGet(result));
-                                    final byte[] buf = new byte[1 << 16];
-                                    int len;
-                                    try {
-                                        len = inputStream.read(buf);
-                                        if (len == -1) {
-                                            unsubscribe(subscriber, inputStream, lock);
-                                            log.debug("written:{}", fullPath);
-                                            return;
-                                        }
-                                    } catch (final IOException e) {
-                                        subscriber.onError(e);
-                                        return;
-                                    }
-                                    if (len == -1) {
-                                        unsubscribe(subscriber, inputStream, lock);
-                                        log.debug("written:{}", fullPath);
-                                        return;
-                                    }
-                                    afc.write(ByteBuffer.wrap(Arrays.copyOfRange(buf, 0, len)), offset.get(), null, this);
-                                }
-
-                                @Override
-                                public void failed(final Throwable exc, final Object attachment) {
-                                    subscriber.onError(exc);
-                                }
-                            });
-                        } catch (final Exception e) {
-                            close(inputStream, lock);
-                            subscriber.onError(e);
+        return Observable.<Long>create(subscriber -> {
+            final BufferPool pool = BufferPool.shared();
+            final byte[] buf = pool.acquire();
+            final ByteBuffer direct = pool.acquireDirect();
+            try (final InputStream is = inputStream;
+                 final FileChannel channel = FileChannel.open(fullPath, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+                final FileLock lock = channel.lock();
+                try {
+                    long offset = 0;
+                    int len;
+                    while ((len = is.read(buf)) != -1) {
+                        if (subscriber.isUnsubscribed()) {
+                            return;
                         }
-                    }
-
-                    @Override
-                    public void failed(final Throwable exc, final Object attachment) {
-                        log.error("error on getting lock for:{}, error:{}", fullPath, exc.getMessage());
-                        try {
-                            inputStream.close();
-                        } catch (final IOException e) {
+                        direct.clear();
+                        direct.put(buf, 0, len).flip();
+                        while (direct.hasRemaining()) {
+                            offset += channel.write(direct);
                         }
-                        subscriber.onError(exc);
+                        subscriber.onNext(offset);
                     }
-                });
-
+                    channel.truncate(offset);
+                } finally {
+                    lock.release();
+                }
             } catch (final Exception e) {
                 log.error("error on file:{}", fullPath);
                 subscriber.onError(e);
+                return;
+            } finally {
+                pool.release(buf);
+                pool.release(direct);
             }
-        });
-
-
+            //completed once the lock is released
+            log.debug("written:{}", fullPath);
+            subscriber.onCompleted();
+        }).subscribeOn(Schedulers.io());
     }
 
+    /**
+     * @return stream of the file content, read on the caller thread
+     */
     static public InputStream readIs(final Path path) {
-        final PipedInputStream pis = new PipedInputStream();
-        final AtomicLong pos = new AtomicLong(0);
         try {
-            final PipedOutputStream ostream = new PipedOutputStream(pis);
-            final AsynchronousFileChannel channel = AsynchronousFileChannel.open(path, StandardOpenOption.READ);
-            final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
-            channel.read(buffer, pos.get(), buffer, new CompletionHandler<Integer, ByteBuffer>() {
-                @Override
-                public void completed(final Integer result, final ByteBuffer buf) {
-                    try {
-                        if (result == -1) {
-                            ostream.close();
-                            return;
-                        }
-                        final byte[] bytes = new byte[result];
-                        System.arraycopy(buf.array(), 0, bytes, 0, result);
-                        ostream.write(bytes);
-                        ostream.flush();
-                        if (result < 1 << 16) {
-                            ostream.close();
-                            return;
-                        }
-                        pos.addAndGet(result);
-                        final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
-                        channel.read(buffer, pos.get(), buffer, this);
-                    } catch (final IOException e) {
-                        Throwables.propagate(e);
-                    }
-                }
-
-                @Override
-                public void failed(final Throwable exc, final ByteBuffer attachment) {
-                    log.error(exc.getMessage(), exc);
-                }
-            });
+            return new ChannelInputStream(FileChannel.open(path, StandardOpenOption.READ), BufferPool.shared());
         } catch (final IOException e) {
             if (e instanceof NoSuchFileException) {
                 throw new NotFoundException(path);
             }
             Throwables.propagate(e);
         }
-        return pis;
+        return null;
     }
 
     public static InputStream convert(final Observable<byte[]> source) {
@@ -283,41 +204,28 @@ public class Utils {
         return null;
     }
 
+    /**
+     * @return the file content in chunks of the length actually read
+     */
     public static Observable<byte[]> read(final Path path) {
-        return Observable.create(subscriber -> {
-            final AtomicLong pos = new AtomicLong(0);
-            try {
-                final AsynchronousFileChannel channel = AsynchronousFileChannel.open(path, StandardOpenOption.READ);
-                read(pos, ByteBuffer.allocate(1 << 16), channel, subscriber);
+        return Observable.<byte[]>create(subscriber -> {
+            final byte[] buf = BufferPool.shared().acquire();
+            try (final InputStream is = readIs(path)) {
+                int len;
+                while ((len = is.read(buf)) != -1) {
+                    if (subscriber.isUnsubscribed()) {
+                        return;
+                    }
+                    subscriber.onNext(Arrays.copyOf(buf, len));
+                }
             } catch (final Throwable e) {
                 subscriber.onError(e);
+                return;
+            } finally {
+                BufferPool.shared().release(buf);
             }
-        });
-    }
-
-    private static void read(final AtomicLong pos, final ByteBuffer buffer, final AsynchronousFileChannel channel,
-                             final Subscriber<? super byte[]> subscriber) {
-        channel.read(buffer, pos.get(), pos, new CompletionHandler<Integer, AtomicLong>() {
-            @Override
-            public void completed(final Integer result, final AtomicLong attachment) {
-                if (result == -1) {
-                    subscriber.onCompleted();
-                    return;
-                }
-                subscriber.onNext(buffer.array());
-                if (result < 1 << 16) {
-                    subscriber.onCompleted();
-                    return;
-                }
-                pos.addAndGet(result);
-                read(pos, ByteBuffer.allocate(1 << 16), channel, subscriber);
-            }
-
-            @Override
-            public void failed(final Throwable exc, final AtomicLong attachment) {
-                subscriber.onError(exc);
-            }
-        });
+            subscriber.onCompleted();
+        }).subscribeOn(Schedulers.io());
     }
 
     public static Path ubiqFolder() {
@@ -415,6 +323,10 @@ public class Utils {
         return getLocalConfigFile("config");
     }
 
+    public static Path configLogFile() {
+        return getLocalConfigFile("config.log");
+    }
+
     public static PGPKeyPair readPrivateKey(final char[] password) throws PGPException {
         try {
             return PGPEC.extractEncryptKeyPair(PGPEC.readSK(Files.newInputStream(Utils.securityFile())), password);
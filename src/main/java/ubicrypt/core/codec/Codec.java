@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.codec;
+
+import java.io.InputStream;
+
+import static java.util.zip.Deflater.BEST_COMPRESSION;
+import static java.util.zip.Deflater.BEST_SPEED;
+
+/**
+ * Compression applied to the content before encryption. The name is recorded with the stored file.
+ */
+public enum Codec {
+    none {
+        @Override
+        public InputStream encode(final InputStream is) {
+            return is;
+        }
+
+        @Override
+        public InputStream decode(final InputStream is) {
+            return is;
+        }
+    },
+    /**
+     * zlib, deflated in parallel blocks
+     */
+    deflateFast {
+        @Override
+        public InputStream encode(final InputStream is) {
+            return new ParallelDeflaterInputStream(is, BEST_SPEED);
+        }
+
+        @Override
+        public InputStream decode(final InputStream is) {
+            return ZlibPool.inflate(is);
+        }
+    },
+    deflateBest {
+        @Override
+        public InputStream encode(final InputStream is) {
+            return new ParallelDeflaterInputStream(is, BEST_COMPRESSION);
+        }
+
+        @Override
+        public InputStream decode(final InputStream is) {
+            return ZlibPool.inflate(is);
+        }
+    },
+    /**
+     * LZ4 block compression, much faster than deflate at a lower ratio
+     */
+    lz4 {
+        @Override
+        public InputStream encode(final InputStream is) {
+            return new Lz4.EncoderInputStream(is);
+        }
+
+        @Override
+        public InputStream decode(final InputStream is) {
+            return new Lz4.DecoderInputStream(is);
+        }
+    };
+
+    public abstract InputStream encode(InputStream is);
+
+    public abstract InputStream decode(InputStream is);
+
+    /**
+     * @return the recorded codec, content stored without one is deflated
+     */
+    public static Codec of(final Codec codec) {
+        return codec != null ? codec : deflateBest;
+    }
+}
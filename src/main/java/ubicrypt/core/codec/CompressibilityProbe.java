@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+
+/**
+ * Samples the head of a stream to tell whether compressing it is worth the CPU:
+ * known compressed formats are recognized by their magic number, anything else by the entropy of the sample.
+ */
+public class CompressibilityProbe {
+    static final int sampleSize = 1 << 16;
+    private static final int minEntropySample = 1 << 10;
+    private static final double maxEntropy = 7.5;
+    private static final byte[][] magics = {
+            {(byte) 0xff, (byte) 0xd8, (byte) 0xff},//jpeg
+            {(byte) 0x89, 'P', 'N', 'G'},//png
+            {'G', 'I', 'F', '8'},//gif
+            {'P', 'K', 3, 4},//zip, office, jar
+            {(byte) 0x1f, (byte) 0x8b},//gzip
+            {'B', 'Z', 'h'},//bzip2
+            {(byte) 0xfd, '7', 'z', 'X', 'Z', 0},//xz
+            {'7', 'z', (byte) 0xbc, (byte) 0xaf, 0x27, 0x1c},//7z
+            {'R', 'a', 'r', '!'},//rar
+            {0x28, (byte) 0xb5, 0x2f, (byte) 0xfd},//zstd
+            {0x1a, 0x45, (byte) 0xdf, (byte) 0xa3},//matroska, webm
+            {'O', 'g', 'g', 'S'},//ogg
+            {'I', 'D', '3'},//mp3
+            {'f', 'L', 'a', 'C'},//flac
+    };
+    private final InputStream stream;
+    private final boolean incompressible;
+
+    private CompressibilityProbe(final InputStream stream, final boolean incompressible) {
+        this.stream = stream;
+        this.incompressible = incompressible;
+    }
+
+    /**
+     * Reads the sample, {@link #getStream()} replays it followed by the rest.
+     */
+    public static CompressibilityProbe probe(final InputStream is) throws IOException {
+        final byte[] sample = new byte[sampleSize];
+        int length = 0;
+        while (length < sample.length) {
+            final int read = is.read(sample, length, sample.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+        return new CompressibilityProbe(new SequenceInputStream(new ByteArrayInputStream(sample, 0, length), is),
+                isCompressedFormat(sample, length) || (length >= minEntropySample && entropy(sample, length) > maxEntropy));
+    }
+
+    static boolean isCompressedFormat(final byte[] sample, final int length) {
+        for (final byte[] magic : magics) {
+            if (startsWith(sample, length, 0, magic)) {
+                return true;
+            }
+        }
+        //mp4, mov, heic: size of the box then 'ftyp'
+        return startsWith(sample, length, 4, new byte[]{'f', 't', 'y', 'p'})
+                //webp
+                || (startsWith(sample, length, 0, new byte[]{'R', 'I', 'F', 'F'}) && startsWith(sample, length, 8, new byte[]{'W', 'E', 'B', 'P'}));
+    }
+
+    private static boolean startsWith(final byte[] sample, final int length, final int offset, final byte[] magic) {
+        if (length < offset + magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (sample[offset + i] != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return shannon entropy, bits per byte
+     */
+    static double entropy(final byte[] sample, final int length) {
+        final int[] counts = new int[256];
+        for (int i = 0; i < length; i++) {
+            counts[sample[i] & 0xff]++;
+        }
+        double ret = 0;
+        for (final int count : counts) {
+            if (count > 0) {
+                final double p = (double) count / length;
+                ret -= p * Math.log(p);
+            }
+        }
+        return ret / Math.log(2);
+    }
+
+    public InputStream getStream() {
+        return stream;
+    }
+
+    public boolean isIncompressible() {
+        return incompressible;
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.codec;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+import org.slf4j.Logger;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Bytes and CPU time spent by the codecs, and what was avoided by skipping incompressible content.
+ */
+public class CompressionStats {
+    private static final Logger log = getLogger(CompressionStats.class);
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+    private final AtomicLong skippedFiles = new AtomicLong();
+    private final AtomicLong skippedBytes = new AtomicLong();
+
+    /**
+     * Encodes the stream, recording the figures once it has been read.
+     *
+     * @param skipped content found incompressible, stored as it is
+     */
+    public InputStream encode(final Codec codec, final InputStream is, final boolean skipped) {
+        final Meter in = new Meter(is, null);
+        return new Meter(codec.encode(in), out -> {
+            if (skipped) {
+                skippedFiles.incrementAndGet();
+                skippedBytes.addAndGet(in.bytes);
+            } else if (codec != Codec.none) {
+                bytesIn.addAndGet(in.bytes);
+                bytesOut.addAndGet(out.bytes);
+                nanos.addAndGet(Math.max(0, out.nanos - in.nanos));
+            }
+            log.debug("codec:{}, skipped:{}, in:{}, out:{}, stats:{}", codec, skipped, in.bytes, out.bytes, this);
+        });
+    }
+
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    /**
+     * bytes spared by compression
+     */
+    public long getBytesSaved() {
+        return bytesIn.get() - bytesOut.get();
+    }
+
+    public long getCompressionNanos() {
+        return nanos.get();
+    }
+
+    public long getSkippedFiles() {
+        return skippedFiles.get();
+    }
+
+    public long getSkippedBytes() {
+        return skippedBytes.get();
+    }
+
+    /**
+     * CPU time that compressing the skipped bytes would have taken at the average observed speed
+     */
+    public long getNanosAvoided() {
+        final long in = bytesIn.get();
+        return in == 0 ? 0 : (long) ((double) nanos.get() / in * skippedBytes.get());
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this, ToStringStyle.NO_CLASS_NAME_STYLE)
+                .append("bytesIn", getBytesIn())
+                .append("bytesSaved", getBytesSaved())
+                .append("compressionMs", getCompressionNanos() / 1000000)
+                .append("skippedFiles", getSkippedFiles())
+                .append("skippedBytes", getSkippedBytes())
+                .append("avoidedMs", getNanosAvoided() / 1000000)
+                .append("zlibInUse", ZlibPool.getOutstanding())
+                .append("zlibLive", ZlibPool.getLive())
+                .toString();
+    }
+
+    private interface Completion {
+        void call(Meter meter);
+    }
+
+    /**
+     * Counts bytes and time spent in read calls.
+     */
+    private static class Meter extends FilterInputStream {
+        private final Completion completion;
+        private final AtomicBoolean completed = new AtomicBoolean(false);
+        private long bytes = 0;
+        private long nanos = 0;
+
+        Meter(final InputStream in, final Completion completion) {
+            super(in);
+            this.completion = completion;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final long start = System.nanoTime();
+            final int ret = super.read();
+            nanos += System.nanoTime() - start;
+            if (ret < 0) {
+                complete();
+            } else {
+                bytes++;
+            }
+            return ret;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final long start = System.nanoTime();
+            final int ret = super.read(b, off, len);
+            nanos += System.nanoTime() - start;
+            if (ret < 0) {
+                complete();
+            } else {
+                bytes += ret;
+            }
+            return ret;
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            complete();
+        }
+
+        private void complete() {
+            if (completion != null && completed.compareAndSet(false, true)) {
+                completion.call(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,320 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.codec;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * LZ4 block format compressor, the stream is a sequence of frames:
+ * raw length (4 bytes), compressed length (4 bytes, 0 when stored raw), data. A zero raw length ends the stream.
+ */
+public class Lz4 {
+    static final int blockSize = 1 << 16;
+    private static final int minMatch = 4;
+    private static final int lastLiterals = 5;
+    private static final int mfLimit = 12;
+    private static final int hashLog = 12;
+    private static final int maxOffset = 65535;
+
+    static int maxCompressedLength(final int length) {
+        return length + length / 255 + 16;
+    }
+
+    private static int readInt(final byte[] buf, final int i) {
+        return (buf[i] & 0xff) | (buf[i + 1] & 0xff) << 8 | (buf[i + 2] & 0xff) << 16 | (buf[i + 3] & 0xff) << 24;
+    }
+
+    private static int hash(final int value) {
+        return (value * -1640531535) >>> (32 - hashLog);
+    }
+
+    private static int writeLength(int length, final byte[] dst, int op) {
+        while (length >= 255) {
+            dst[op++] = (byte) 255;
+            length -= 255;
+        }
+        dst[op++] = (byte) length;
+        return op;
+    }
+
+    private static int writeLiterals(final byte[] src, final int anchor, final int length, final byte[] dst, int op, final int matchToken) {
+        final int token = op++;
+        if (length >= 15) {
+            dst[token] = (byte) (15 << 4 | matchToken);
+            op = writeLength(length - 15, dst, op);
+        } else {
+            dst[token] = (byte) (length << 4 | matchToken);
+        }
+        System.arraycopy(src, anchor, dst, op, length);
+        return op + length;
+    }
+
+    /**
+     * @param dst at least {@link #maxCompressedLength(int)} long
+     * @return the compressed length
+     */
+    static int compress(final byte[] src, final int length, final byte[] dst) {
+        final int[] table = new int[1 << hashLog];
+        Arrays.fill(table, -1);
+        int ip = 0;
+        int anchor = 0;
+        int op = 0;
+        final int limit = length - mfLimit;
+        final int matchLimit = length - lastLiterals;
+        while (ip < limit) {
+            final int sequence = readInt(src, ip);
+            final int h = hash(sequence);
+            int ref = table[h];
+            table[h] = ip;
+            if (ref < 0 || ip - ref > maxOffset || readInt(src, ref) != sequence) {
+                ip++;
+                continue;
+            }
+            //extend backwards
+            while (ip > anchor && ref > 0 && src[ip - 1] == src[ref - 1]) {
+                ip--;
+                ref--;
+            }
+            int end = ip + minMatch;
+            int r = ref + minMatch;
+            while (end < matchLimit && src[end] == src[r]) {
+                end++;
+                r++;
+            }
+            final int matchLength = end - ip - minMatch;
+            op = writeLiterals(src, anchor, ip - anchor, dst, op, Math.min(matchLength, 15));
+            final int offset = ip - ref;
+            dst[op++] = (byte) offset;
+            dst[op++] = (byte) (offset >>> 8);
+            if (matchLength >= 15) {
+                op = writeLength(matchLength - 15, dst, op);
+            }
+            ip = end;
+            anchor = ip;
+            if (ip - 2 < limit) {
+                table[hash(readInt(src, ip - 2))] = ip - 2;
+            }
+        }
+        return writeLiterals(src, anchor, length - anchor, dst, op, 0);
+    }
+
+    static void decompress(final byte[] src, final int length, final byte[] dst, final int rawLength) throws IOException {
+        try {
+            int ip = 0;
+            int op = 0;
+            while (true) {
+                final int token = src[ip++] & 0xff;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        literals += b;
+                    } while (b == 255);
+                }
+                if (ip + literals > length || op + literals > rawLength) {
+                    throw new IOException("corrupted lz4 block");
+                }
+                System.arraycopy(src, ip, dst, op, literals);
+                ip += literals;
+                op += literals;
+                if (ip == length) {
+                    break;
+                }
+                final int offset = (src[ip] & 0xff) | (src[ip + 1] & 0xff) << 8;
+                ip += 2;
+                int matchLength = token & 0x0f;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += minMatch;
+                if (offset == 0 || offset > op || op + matchLength > rawLength) {
+                    throw new IOException("corrupted lz4 block");
+                }
+                for (int i = 0; i < matchLength; i++) {
+                    dst[op] = dst[op - offset];
+                    op++;
+                }
+            }
+            if (op != rawLength) {
+                throw new IOException("corrupted lz4 block, length:" + op + ", expected:" + rawLength);
+            }
+        } catch (final ArrayIndexOutOfBoundsException e) {
+            throw new IOException("corrupted lz4 block", e);
+        }
+    }
+
+    private static int readFully(final InputStream is, final byte[] buf, final int length) throws IOException {
+        int pos = 0;
+        while (pos < length) {
+            final int read = is.read(buf, pos, length - pos);
+            if (read < 0) {
+                break;
+            }
+            pos += read;
+        }
+        return pos;
+    }
+
+    /**
+     * Serves the frames produced by {@link #next()}.
+     */
+    private abstract static class FrameInputStream extends InputStream {
+        protected final InputStream source;
+        private byte[] current = new byte[0];
+        private int pos = 0;
+        private int limit = 0;
+        private boolean done = false;
+
+        FrameInputStream(final InputStream source) {
+            this.source = source;
+        }
+
+        /**
+         * @return the next frame, null at the end
+         */
+        protected abstract ByteBuffer next() throws IOException;
+
+        private boolean fill() throws IOException {
+            while (pos == limit) {
+                if (done) {
+                    return false;
+                }
+                final ByteBuffer frame = next();
+                if (frame == null) {
+                    done = true;
+                    return false;
+                }
+                current = frame.array();
+                pos = frame.position();
+                limit = frame.limit();
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return current[pos++] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            final int n = Math.min(len, limit - pos);
+            System.arraycopy(current, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return limit - pos;
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+    }
+
+    static class EncoderInputStream extends FrameInputStream {
+        private final byte[] raw = new byte[blockSize];
+        private final byte[] compressed = new byte[maxCompressedLength(blockSize)];
+        private final byte[] frame = new byte[8 + maxCompressedLength(blockSize)];
+        private boolean ended = false;
+
+        EncoderInputStream(final InputStream source) {
+            super(source);
+        }
+
+        @Override
+        protected ByteBuffer next() throws IOException {
+            if (ended) {
+                return null;
+            }
+            final int read = readFully(source, raw, raw.length);
+            final ByteBuffer bb = ByteBuffer.wrap(frame).putInt(read);
+            if (read == 0) {
+                ended = true;
+            } else {
+                final int length = compress(raw, read, compressed);
+                if (length < read) {
+                    bb.putInt(length).put(compressed, 0, length);
+                } else {
+                    bb.putInt(0).put(raw, 0, read);
+                }
+            }
+            bb.flip();
+            return bb;
+        }
+    }
+
+    static class DecoderInputStream extends FrameInputStream {
+        private final DataInputStream dis;
+        private byte[] compressed = new byte[0];
+        private byte[] raw = new byte[0];
+
+        DecoderInputStream(final InputStream source) {
+            super(source);
+            this.dis = new DataInputStream(source);
+        }
+
+        @Override
+        protected ByteBuffer next() throws IOException {
+            final int rawLength;
+            try {
+                rawLength = dis.readInt();
+            } catch (final EOFException e) {
+                throw new EOFException("lz4 stream truncated");
+            }
+            if (rawLength == 0) {
+                return null;
+            }
+            final int length = dis.readInt();
+            if (rawLength < 0 || rawLength > blockSize || length < 0 || length > maxCompressedLength(blockSize)) {
+                throw new IOException("corrupted lz4 frame");
+            }
+            if (raw.length < rawLength) {
+                raw = new byte[blockSize];
+            }
+            if (length == 0) {
+                dis.readFully(raw, 0, rawLength);
+                return ByteBuffer.wrap(raw, 0, rawLength);
+            }
+            if (compressed.length < length) {
+                compressed = new byte[maxCompressedLength(blockSize)];
+            }
+            dis.readFully(compressed, 0, length);
+            decompress(compressed, length, raw, rawLength);
+            return ByteBuffer.wrap(raw, 0, rawLength);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+/**
+ * Zlib compressor deflating independent blocks on the fork-join pool, in the manner of pigz.
+ * Every block is primed with the last 32KB of the previous one and ends with a sync flush,
+ * so the concatenation is a single zlib stream readable by {@link java.util.zip.InflaterInputStream}.
+ */
+class ParallelDeflaterInputStream extends InputStream {
+    static final int blockSize = 1 << 17;
+    private static final int dictionarySize = 1 << 15;
+    private static final ForkJoinPool pool = ForkJoinPool.commonPool();
+    private static final int window = pool.getParallelism() * 2;
+    private final InputStream source;
+    private final int level;
+    private final Adler32 checksum = new Adler32();
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private byte[] previous;
+    private int previousLength = 0;
+    private byte[] current;
+    private int pos = 0;
+    private boolean eof = false;
+    private boolean ended = false;
+    private boolean closed = false;
+
+    ParallelDeflaterInputStream(final InputStream source, final int level) {
+        this.source = source;
+        this.level = level;
+        this.current = header(level);
+    }
+
+    private static byte[] header(final int level) {
+        final int flevel = level == Deflater.DEFAULT_COMPRESSION || level == 6 ? 2 : level < 2 ? 0 : level < 6 ? 1 : 3;
+        int flg = flevel << 6;
+        flg += 31 - (0x78 << 8 | flg) % 31;
+        return new byte[]{0x78, (byte) flg};
+    }
+
+    private static byte[] deflate(final int level, final byte[] dictionary, final int dictionaryLength, final byte[] block, final int length, final boolean last) {
+        final Deflater deflater = ZlibPool.deflater(level);
+        try {
+            if (dictionary != null) {
+                final int len = Math.min(dictionaryLength, dictionarySize);
+                //copied, some jdk releases ignore the offset of setDictionary
+                deflater.setDictionary(Arrays.copyOfRange(dictionary, dictionaryLength - len, dictionaryLength));
+            }
+            deflater.setInput(block, 0, length);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+            final byte[] buf = new byte[1 << 16];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    out.write(buf, 0, deflater.deflate(buf));
+                }
+            } else {
+                int n;
+                do {
+                    n = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+                    out.write(buf, 0, n);
+                } while (n == buf.length);
+            }
+            return out.toByteArray();
+        } finally {
+            ZlibPool.release(level, deflater);
+        }
+    }
+
+    private static int readFully(final InputStream is, final byte[] buf) throws IOException {
+        int pos = 0;
+        while (pos < buf.length) {
+            final int read = is.read(buf, pos, buf.length - pos);
+            if (read < 0) {
+                break;
+            }
+            pos += read;
+        }
+        return pos;
+    }
+
+    /**
+     * Reads the source in the caller thread, the blocks are deflated ahead up to twice the pool parallelism.
+     */
+    private void submit() throws IOException {
+        while (!eof && pending.size() < window) {
+            final byte[] block = new byte[blockSize];
+            final int length = readFully(source, block);
+            eof = length < blockSize;
+            checksum.update(block, 0, length);
+            final byte[] dictionary = previous;
+            final int dictionaryLength = previousLength;
+            final boolean last = eof;
+            pending.add(pool.submit(() -> deflate(level, dictionary, dictionaryLength, block, length, last)));
+            previous = block;
+            previousLength = length;
+        }
+    }
+
+    private boolean fill() throws IOException {
+        while (pos == current.length) {
+            if (closed) {
+                throw new IOException("stream closed");
+            }
+            submit();
+            final Future<byte[]> head = pending.poll();
+            if (head == null) {
+                if (ended) {
+                    return false;
+                }
+                ended = true;
+                final long adler = checksum.getValue();
+                current = new byte[]{(byte) (adler >>> 24), (byte) (adler >>> 16), (byte) (adler >>> 8), (byte) adler};
+                pos = 0;
+                continue;
+            }
+            try {
+                current = head.get();
+                pos = 0;
+            } catch (final ExecutionException e) {
+                close();
+                throw new IOException("deflate failed", e.getCause());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return current[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        final int n = Math.min(len, current.length - pos);
+        System.arraycopy(current, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current.length - pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        pending.forEach(future -> future.cancel(true));
+        pending.clear();
+        source.close();
+    }
+}
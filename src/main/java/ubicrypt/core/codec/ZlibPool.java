@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Recycles the zlib deflaters and inflaters, whose native memory is otherwise freed only by finalization.
+ * Instances beyond the idle bound are ended on release.
+ */
+public class ZlibPool {
+    private static final int maxIdle = Runtime.getRuntime().availableProcessors() * 4;
+    private static final Map<Integer, BlockingQueue<Deflater>> deflaters = new ConcurrentHashMap<>();
+    private static final BlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<>(maxIdle);
+    private static final AtomicInteger outstanding = new AtomicInteger();
+    private static final AtomicInteger live = new AtomicInteger();
+
+    /**
+     * @return a raw deflater (no zlib header) at the level, to be released with {@link #release(int, Deflater)}
+     */
+    public static Deflater deflater(final int level) {
+        Deflater deflater = deflaters.computeIfAbsent(level, l -> new ArrayBlockingQueue<>(maxIdle)).poll();
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+            live.incrementAndGet();
+        }
+        outstanding.incrementAndGet();
+        return deflater;
+    }
+
+    public static void release(final int level, final Deflater deflater) {
+        outstanding.decrementAndGet();
+        deflater.reset();
+        if (!deflaters.computeIfAbsent(level, l -> new ArrayBlockingQueue<>(maxIdle)).offer(deflater)) {
+            deflater.end();
+            live.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return a zlib inflater, to be released with {@link #release(Inflater)}
+     */
+    public static Inflater inflater() {
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater();
+            live.incrementAndGet();
+        }
+        outstanding.incrementAndGet();
+        return inflater;
+    }
+
+    public static void release(final Inflater inflater) {
+        outstanding.decrementAndGet();
+        inflater.reset();
+        if (!inflaters.offer(inflater)) {
+            inflater.end();
+            live.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return zlib stream reader whose inflater returns to the pool at the end of the stream or on close
+     */
+    public static InputStream inflate(final InputStream is) {
+        return new PooledInflaterInputStream(is);
+    }
+
+    /**
+     * instances in use, not yet released
+     */
+    public static int getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * instances holding native memory, in use or idle
+     */
+    public static int getLive() {
+        return live.get();
+    }
+
+    private static class PooledInflaterInputStream extends InflaterInputStream {
+        private boolean released = false;
+
+        PooledInflaterInputStream(final InputStream in) {
+            super(in, inflater(), 1 << 16);
+        }
+
+        private void release() {
+            if (!released) {
+                released = true;
+                ZlibPool.release(inf);
+            }
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (released) {
+                return -1;
+            }
+            final int ret = super.read(b, off, len);
+            if (ret < 0) {
+                release();
+            }
+            return ret;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return released ? 0 : super.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            release();
+            super.close();
+        }
+    }
+}
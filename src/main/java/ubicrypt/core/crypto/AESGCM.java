@@ -31,13 +31,35 @@ import java.security.SecureRandom;
 import java.security.Security;
 import java.util.concurrent.atomic.AtomicLong;
 
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
+import ubicrypt.core.dto.Key;
+import ubicrypt.core.dto.UbiFile;
+
 import static com.google.common.base.Preconditions.checkNotNull;
 
 public class AESGCM {
     private final static int keyLenght = 32;//256 bits
+    private final static int tagBits = 128;
     private static final AtomicLong ivl = new AtomicLong(System.currentTimeMillis());
+    private static volatile Engine engine = Engine.bc;
+    private static volatile Key.Format format = Key.Format.stream;
+
+    /**
+     * Implementation of the cipher, both produce the same IV-prefixed stream.
+     */
+    public enum Engine {
+        /**
+         * BouncyCastle, pure java
+         */
+        bc,
+        /**
+         * javax.crypto of the JVM, hardware accelerated where the JVM supports it
+         */
+        jce
+    }
 
     static {
         Security.addProvider(new BouncyCastleProvider());
@@ -54,10 +76,46 @@ public class AESGCM {
     }
 
 
+    /**
+     * new random aes key, in the configured format
+     */
+    public static Key newKey() {
+        final Key key = new Key(rndKey(), UbiFile.KeyType.aes);
+        if (format != Key.Format.stream) {
+            key.setFormat(format);
+        }
+        return key;
+    }
+
+    /**
+     * Encrypts in the format recorded in the key.
+     */
+    public static InputStream encryptIs(final Key key, final InputStream plain) {
+        checkNotNull(key, "key must not be null");
+        if (key.getFormat() == Key.Format.segmented) {
+            return SegmentedAESGCM.encryptIs(key.getBytes(), plain);
+        }
+        return encryptIs(key.getBytes(), plain);
+    }
+
+    /**
+     * Decrypts in the format recorded in the key.
+     */
+    public static InputStream decryptIs(final Key key, final InputStream cipherStream) {
+        checkNotNull(key, "key must not be null");
+        if (key.getFormat() == Key.Format.segmented) {
+            return SegmentedAESGCM.decryptIs(key.getBytes(), cipherStream);
+        }
+        return decryptIs(key.getBytes(), cipherStream);
+    }
+
     public static InputStream encryptIs(final byte[] key, final InputStream plain) {
         checkNotNull(key, "key must not be null");
         checkNotNull(plain, "plain must not be null");
         final byte[] iv = ByteBuffer.allocate(keyLenght).putLong(ivl.getAndIncrement()).array();
+        if (engine == Engine.jce) {
+            return new SequenceInputStream(new ByteArrayInputStream(iv), new BufferedCipherInputStream(plain, jceCipher(key, iv)));
+        }
         final AEADBlockCipher cipher = cipherObject(true, new SecretKeySpec(key, "AES"), iv);
         return new SequenceInputStream(new ByteArrayInputStream(iv), new CipherInputStream(plain, cipher));
     }
@@ -76,9 +134,45 @@ public class AESGCM {
         return null;
     }
 
+    /**
+     * Only encryption goes through JCE: its GCM decryption releases the plain text
+     * after the whole cipher text has been authenticated, holding it in memory.
+     */
+    private static Cipher jceCipher(final byte[] key, final byte[] iv) {
+        try {
+            final Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(tagBits, iv));
+            return cipher;
+        } catch (final Exception e) {
+            Throwables.propagate(e);
+        }
+        return null;
+    }
+
+    public static Engine getEngine() {
+        return engine;
+    }
+
+    public static void setEngine(final Engine engine) {
+        checkNotNull(engine, "engine must not be null");
+        AESGCM.engine = engine;
+    }
+
+    public static Key.Format getFormat() {
+        return format;
+    }
+
+    /**
+     * @param format of the keys created by {@link #newKey()}
+     */
+    public static void setFormat(final Key.Format format) {
+        checkNotNull(format, "format must not be null");
+        AESGCM.format = format;
+    }
+
     private static AEADBlockCipher cipherObject(final boolean encrypt, final SecretKeySpec key, final byte[] iv) {
         final AEADBlockCipher cipher = new GCMBlockCipher(new AESEngine());
-        cipher.init(encrypt, new AEADParameters(new KeyParameter(key.getEncoded()), 128, iv));
+        cipher.init(encrypt, new AEADParameters(new KeyParameter(key.getEncoded()), tagBits, iv));
         return cipher;
     }
 }
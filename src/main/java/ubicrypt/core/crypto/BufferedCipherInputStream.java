@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.crypto;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+
+/**
+ * Like {@link javax.crypto.CipherInputStream} but feeding the cipher with large blocks
+ * and propagating the failures of {@link Cipher#doFinal()}.
+ */
+class BufferedCipherInputStream extends FilterInputStream {
+    private static final int bufferSize = 1 << 16;
+    private final Cipher cipher;
+    private final byte[] in = new byte[bufferSize];
+    private byte[] out = new byte[0];
+    private int pos = 0;
+    private int limit = 0;
+    private boolean done = false;
+
+    BufferedCipherInputStream(final InputStream is, final Cipher cipher) {
+        super(is);
+        this.cipher = cipher;
+    }
+
+    private boolean fill() throws IOException {
+        while (pos == limit) {
+            if (done) {
+                return false;
+            }
+            final int read = super.read(in, 0, in.length);
+            try {
+                if (read < 0) {
+                    done = true;
+                    out = cipher.doFinal();
+                } else {
+                    final int size = cipher.getOutputSize(read);
+                    if (out.length < size) {
+                        out = new byte[Math.max(size, bufferSize + 32)];
+                    }
+                    limit = cipher.update(in, 0, read, out, 0);
+                    pos = 0;
+                    continue;
+                }
+            } catch (final GeneralSecurityException e) {
+                throw new IOException(e);
+            }
+            pos = 0;
+            limit = out.length;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return out[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        final int n = Math.min(len, limit - pos);
+        System.arraycopy(out, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && fill()) {
+            final int step = (int) Math.min(n - skipped, limit - pos);
+            pos += step;
+            skipped += step;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return limit - pos;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(final int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+}
@@ -22,13 +22,11 @@ import org.bouncycastle.bcpg.sig.KeyFlags;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.openpgp.PGPCompressedData;
 import org.bouncycastle.openpgp.PGPEncryptedData;
-import org.bouncycastle.openpgp.PGPEncryptedDataGenerator;
 import org.bouncycastle.openpgp.PGPEncryptedDataList;
 import org.bouncycastle.openpgp.PGPException;
 import org.bouncycastle.openpgp.PGPKeyPair;
 import org.bouncycastle.openpgp.PGPKeyRingGenerator;
 import org.bouncycastle.openpgp.PGPLiteralData;
-import org.bouncycastle.openpgp.PGPLiteralDataGenerator;
 import org.bouncycastle.openpgp.PGPObjectFactory;
 import org.bouncycastle.openpgp.PGPPrivateKey;
 import org.bouncycastle.openpgp.PGPPublicKey;
@@ -54,17 +52,12 @@ import org.bouncycastle.openpgp.operator.bc.BcPGPDigestCalculatorProvider;
 import org.bouncycastle.openpgp.operator.jcajce.JcaKeyFingerprintCalculator;
 import org.bouncycastle.openpgp.operator.jcajce.JcaPGPContentSignerBuilder;
 import org.bouncycastle.openpgp.operator.jcajce.JcaPGPKeyPair;
-import org.bouncycastle.openpgp.operator.jcajce.JcePGPDataEncryptorBuilder;
 import org.bouncycastle.openpgp.operator.jcajce.JcePublicKeyDataDecryptorFactoryBuilder;
-import org.bouncycastle.openpgp.operator.jcajce.JcePublicKeyKeyEncryptionMethodGenerator;
 import org.slf4j.Logger;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.lang.reflect.Field;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
@@ -75,15 +68,10 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
-import rx.Observable;
-import rx.schedulers.Schedulers;
 import ubicrypt.core.Utils;
-import ubicrypt.core.util.ConsumerExp;
-import ubicrypt.core.util.OnSubscribeInputStream;
 
 import static org.slf4j.LoggerFactory.getLogger;
 import static ubicrypt.core.Utils.toStream;
@@ -293,36 +281,17 @@ public class PGPEC {
     }
 
 
+    /**
+     * @return the PGP message, encrypted while it is read
+     */
     public static InputStream encrypt(final List<PGPPublicKey> pks, final InputStream clearBytes) {
-        final PipedInputStream pis = new PipedInputStream();
-        final AtomicReference<PipedOutputStream> pos = new AtomicReference<>();
-        final AtomicReference<OutputStream> pgpOut = new AtomicReference<>();
-        final AtomicReference<OutputStream> lout = new AtomicReference<>();
         try {
-            pos.set(new PipedOutputStream(pis));
-            final PGPLiteralDataGenerator lData = new PGPLiteralDataGenerator();
-
-            final PGPEncryptedDataGenerator cPk = new PGPEncryptedDataGenerator(new JcePGPDataEncryptorBuilder(
-                    SymmetricKeyAlgorithmTags.AES_256).setWithIntegrityPacket(true).setProvider("BC").setSecureRandom(
-                    new SecureRandom()));
-
-            pks.stream().forEach(pk -> cPk.addMethod(new JcePublicKeyKeyEncryptionMethodGenerator(pk).setProvider("BC")));
-            pgpOut.set(cPk.open(pos.get(), new byte[1 << 16]));
-            lout.set(lData.open(pgpOut.get(), PGPLiteralDataGenerator.BINARY, PGPLiteralData.CONSOLE, new Date(), new byte[1 << 64]));
-
-            Observable.create(new OnSubscribeInputStream(clearBytes, 1 << 64))
-                    .subscribeOn(Schedulers.io())
-                    .doOnCompleted(() -> Utils.close(lout.get(), pgpOut.get(), pos.get()))
-                    .doOnError(err -> {
-                        log.error("error on encrypt", err);
-                        Utils.close(clearBytes, lout.get(), pgpOut.get(), pos.get());
-                    })
-                    .subscribe(ConsumerExp.silent(lout.get()::write));
+            return new PGPEncryptInputStream(pks, clearBytes);
         } catch (final Exception e) {
-            Utils.close(clearBytes, lout.get(), pgpOut.get(), pos.get());
+            Utils.close(clearBytes);
             Throwables.propagate(e);
         }
-        return pis;
+        return null;
     }
 
     public static InputStream decrypt(final PGPPrivateKey privateKey, final InputStream cipherText) throws PGPException {
@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.crypto;
+
+import org.bouncycastle.bcpg.SymmetricKeyAlgorithmTags;
+import org.bouncycastle.openpgp.PGPEncryptedDataGenerator;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPLiteralData;
+import org.bouncycastle.openpgp.PGPLiteralDataGenerator;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.operator.jcajce.JcePGPDataEncryptorBuilder;
+import org.bouncycastle.openpgp.operator.jcajce.JcePublicKeyKeyEncryptionMethodGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.List;
+
+import ubicrypt.core.Utils;
+
+/**
+ * PGP message of the clear stream, produced as it is read on the caller thread.
+ * Every read encrypts the next clear buffer into an in-memory sink, so at most one buffer of ciphertext is held.
+ */
+class PGPEncryptInputStream extends InputStream {
+    private static final int bufferSize = 1 << 16;
+    private final InputStream clear;
+    private final Sink sink = new Sink();
+    private final OutputStream pgpOut;
+    private final OutputStream literalOut;
+    private final byte[] buf = new byte[bufferSize];
+    private int pos = 0;
+    private boolean finished = false;
+
+    PGPEncryptInputStream(final List<PGPPublicKey> pks, final InputStream clear) throws IOException, PGPException {
+        this.clear = clear;
+        final PGPEncryptedDataGenerator cPk = new PGPEncryptedDataGenerator(new JcePGPDataEncryptorBuilder(
+                SymmetricKeyAlgorithmTags.AES_256).setWithIntegrityPacket(true).setProvider("BC").setSecureRandom(
+                new SecureRandom()));
+        pks.forEach(pk -> cPk.addMethod(new JcePublicKeyKeyEncryptionMethodGenerator(pk).setProvider("BC")));
+        pgpOut = cPk.open(sink, new byte[bufferSize]);
+        literalOut = new PGPLiteralDataGenerator().open(pgpOut, PGPLiteralDataGenerator.BINARY, PGPLiteralData.CONSOLE, new Date(), new byte[bufferSize]);
+    }
+
+    private boolean fill() throws IOException {
+        while (pos == sink.size()) {
+            if (finished) {
+                return false;
+            }
+            sink.reset();
+            pos = 0;
+            try {
+                final int read = clear.read(buf);
+                if (read < 0) {
+                    finished = true;
+                    literalOut.close();
+                    pgpOut.close();
+                    clear.close();
+                } else {
+                    literalOut.write(buf, 0, read);
+                }
+            } catch (final IOException e) {
+                finished = true;
+                Utils.close(clear);
+                throw e;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return sink.buffer()[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        final int n = Math.min(len, sink.size() - pos);
+        System.arraycopy(sink.buffer(), pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return sink.size() - pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        pos = 0;
+        sink.reset();
+        clear.close();
+    }
+
+    private static class Sink extends ByteArrayOutputStream {
+        Sink() {
+            super(bufferSize * 2);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+}
@@ -15,13 +15,28 @@ package ubicrypt.core.crypto;
 
 import com.google.common.base.Throwables;
 
+import org.apache.commons.io.IOUtils;
 import org.bouncycastle.openpgp.PGPException;
 import org.bouncycastle.openpgp.PGPKeyPair;
+import org.bouncycastle.openpgp.PGPPublicKey;
 import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import javax.inject.Inject;
@@ -34,13 +49,27 @@ import static java.util.stream.Stream.concat;
 import static java.util.stream.Stream.of;
 import static org.slf4j.LoggerFactory.getLogger;
 
+/**
+ * PGP encryption for the owned public keys. In envelope mode the content is sealed with an AES-GCM data key
+ * and only the data key is PGP encrypted, once for every set of recipients. Layout of an envelope:
+ * magic "UBEV", version, length of the wrapped key (4 bytes), wrapped key, AES-GCM ciphertext.
+ */
 public class PGPService implements IPGPService {
     private static final Logger log = getLogger(PGPService.class);
+    private static final byte[] magic = {'U', 'B', 'E', 'V'};
+    private static final byte version = 1;
+    private static final int maxWrappedLength = 1 << 20;
+    private static final long maxSeals = 1 << 20;
+    private static final int maxCachedKeys = 64;
+    private final Map<ByteBuffer, byte[]> unwrapped = new ConcurrentHashMap<>();
     @Autowired
     @Qualifier("keyPair")
     PGPKeyPair keyPair;
     @Inject
     LocalConfig localConfig;
+    @Value("${pgp.envelope:false}")
+    private boolean envelope = false;
+    private Envelope current;
 
     public PGPService() {
     }
@@ -50,31 +79,110 @@ public class PGPService implements IPGPService {
         this.localConfig = localConfig;
     }
 
-    @Override
-    public InputStream encrypt(final InputStream clearBytes) {
+    private List<PGPPublicKey> recipients() {
         checkNotNull(keyPair, "keyPair must not be null");
         checkNotNull(localConfig, "localConfig must not be null");
-        return PGPEC.encrypt(concat(of(keyPair.getPublicKey()),
+        return concat(of(keyPair.getPublicKey()),
                 localConfig.getOwnedPKs().stream()
                         .map(EqualsValue::getValue))
-                .collect(Collectors.toList()), clearBytes);
+                .collect(Collectors.toList());
     }
 
+    @Override
+    public InputStream encrypt(final InputStream clearBytes) {
+        final List<PGPPublicKey> pks = recipients();
+        if (!envelope) {
+            return PGPEC.encrypt(pks, clearBytes);
+        }
+        return envelope(pks).seal(clearBytes);
+    }
+
+    /**
+     * @return the envelope of the recipients, a new data key is wrapped when they change
+     */
+    private synchronized Envelope envelope(final List<PGPPublicKey> pks) {
+        final Set<Long> ids = pks.stream().map(PGPPublicKey::getKeyID).collect(Collectors.toSet());
+        if (current == null || !current.recipients.equals(ids) || current.seals.get() >= maxSeals) {
+            log.debug("new envelope data key for recipients:{}", ids.size());
+            current = new Envelope(pks, ids);
+        }
+        return current;
+    }
 
     @Override
     public InputStream decrypt(final InputStream cipherText) {
         try {
-            return PGPEC.decrypt(keyPair.getPrivateKey(), cipherText);
-        } catch (final PGPException e) {
+            final BufferedInputStream bis = new BufferedInputStream(cipherText);
+            bis.mark(magic.length + 1);
+            final byte[] head = new byte[magic.length + 1];
+            final DataInputStream dis = new DataInputStream(bis);
+            if (IOUtils.read(bis, head) < head.length || !Arrays.equals(Arrays.copyOf(head, magic.length), magic)) {
+                bis.reset();
+                return PGPEC.decrypt(keyPair.getPrivateKey(), bis);
+            }
+            if (head[magic.length] != version) {
+                throw new IOException("envelope version not supported:" + head[magic.length]);
+            }
+            final int length = dis.readInt();
+            if (length <= 0 || length > maxWrappedLength) {
+                throw new IOException("envelope corrupted");
+            }
+            final byte[] wrapped = new byte[length];
+            dis.readFully(wrapped);
+            return AESGCM.decryptIs(dataKey(wrapped), bis);
+        } catch (final Exception e) {
             Throwables.propagate(e);
         }
         return null;
     }
 
+    /**
+     * unwrapped data keys are kept for the session
+     */
+    private byte[] dataKey(final byte[] wrapped) throws PGPException, IOException {
+        final ByteBuffer id = ByteBuffer.wrap(wrapped);
+        final byte[] cached = unwrapped.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        final byte[] key = IOUtils.toByteArray(PGPEC.decrypt(keyPair.getPrivateKey(), new ByteArrayInputStream(wrapped)));
+        if (unwrapped.size() >= maxCachedKeys) {
+            unwrapped.clear();
+        }
+        unwrapped.put(id, key);
+        return key;
+    }
+
 
     @Override
     public long keyId() {
         return keyPair.getPublicKey().getKeyID();
     }
 
+    public void setEnvelope(final boolean envelope) {
+        this.envelope = envelope;
+    }
+
+    private static class Envelope {
+        private final Set<Long> recipients;
+        private final byte[] dataKey = AESGCM.rndKey();
+        private final byte[] header;
+        private final AtomicLong seals = new AtomicLong();
+
+        Envelope(final List<PGPPublicKey> pks, final Set<Long> recipients) {
+            this.recipients = recipients;
+            try {
+                final byte[] wrapped = IOUtils.toByteArray(PGPEC.encrypt(pks, new ByteArrayInputStream(dataKey)));
+                header = ByteBuffer.allocate(magic.length + 1 + 4 + wrapped.length)
+                        .put(magic).put(version).putInt(wrapped.length).put(wrapped).array();
+            } catch (final IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+
+        InputStream seal(final InputStream clearBytes) {
+            seals.incrementAndGet();
+            return new SequenceInputStream(new ByteArrayInputStream(header), AESGCM.encryptIs(dataKey, clearBytes));
+        }
+    }
 }
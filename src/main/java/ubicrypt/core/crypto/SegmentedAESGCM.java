@@ -0,0 +1,263 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.crypto;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * AES-GCM stream split in independently authenticated segments, encrypted and decrypted in parallel.
+ * <p>
+ * Header: version (1 byte), plain segment size (4 bytes), nonce prefix (7 bytes).
+ * Every segment is sealed with nonce = prefix | segment index (4 bytes) | final flag (1 byte) and the header as AAD.
+ * Segments are full size but the last one, which is shorter and possibly empty,
+ * so truncation and reordering are detected as soon as the affected segment is read.
+ */
+public class SegmentedAESGCM {
+    public static final byte version = 1;
+    public static final int defaultSegmentSize = 1 << 20;
+    private static final int headerLength = 12;
+    private static final int prefixLength = 7;
+    private static final int tagLength = 16;
+    private static final int threads = Runtime.getRuntime().availableProcessors();
+    private static final ExecutorService workers = Executors.newFixedThreadPool(threads,
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("aesgcm-%d").build());
+    private static final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (final Exception e) {
+            Throwables.propagate(e);
+        }
+        return null;
+    });
+    private static final SecureRandom rnd = new SecureRandom();
+
+    public static InputStream encryptIs(final byte[] key, final InputStream plain) {
+        return encryptIs(key, plain, defaultSegmentSize);
+    }
+
+    public static InputStream encryptIs(final byte[] key, final InputStream plain, final int segmentSize) {
+        checkNotNull(key, "key must not be null");
+        checkNotNull(plain, "plain must not be null");
+        checkArgument(segmentSize > 0, "segmentSize must be positive");
+        final byte[] prefix = new byte[prefixLength];
+        rnd.nextBytes(prefix);
+        final byte[] header = ByteBuffer.allocate(headerLength).put(version).putInt(segmentSize).put(prefix).array();
+        final SecretKeySpec keySpec = new SecretKeySpec(key, "AES");
+        return new ParallelSegments(plain, header, new Segmenter() {
+            private int index = 0;
+            private boolean done = false;
+
+            @Override
+            public Callable<byte[]> next(final DataInputStream is) throws IOException {
+                if (done) {
+                    return null;
+                }
+                final byte[] segment = new byte[segmentSize];
+                final int read = readFully(is, segment);
+                final boolean last = read < segmentSize;
+                done = last;
+                final byte[] nonce = nonce(prefix, index++, last);
+                return () -> seal(Cipher.ENCRYPT_MODE, keySpec, nonce, header, segment, read);
+            }
+        });
+    }
+
+    public static InputStream decryptIs(final byte[] key, final InputStream cipherStream) {
+        checkNotNull(key, "key must not be null");
+        checkNotNull(cipherStream, "cipherStream must not be null");
+        final SecretKeySpec keySpec = new SecretKeySpec(key, "AES");
+        return new ParallelSegments(cipherStream, null, new Segmenter() {
+            private byte[] header;
+            private int segmentSize;
+            private int index = 0;
+            private boolean done = false;
+
+            @Override
+            public Callable<byte[]> next(final DataInputStream is) throws IOException {
+                if (done) {
+                    return null;
+                }
+                if (header == null) {
+                    header = new byte[headerLength];
+                    is.readFully(header);
+                    final ByteBuffer bb = ByteBuffer.wrap(header);
+                    final byte ver = bb.get();
+                    if (ver != version) {
+                        throw new IOException("segmented encryption version not supported:" + ver);
+                    }
+                    segmentSize = bb.getInt();
+                    if (segmentSize <= 0) {
+                        throw new IOException("invalid segment size:" + segmentSize);
+                    }
+                }
+                final byte[] segment = new byte[segmentSize + tagLength];
+                final int read = readFully(is, segment);
+                if (read < tagLength) {
+                    throw new EOFException("truncated segment:" + index);
+                }
+                final boolean last = read < segment.length;
+                if (last && is.read() != -1) {
+                    throw new IOException("data after last segment");
+                }
+                done = last;
+                final byte[] nonce = nonce(Arrays.copyOfRange(header, headerLength - prefixLength, headerLength), index++, last);
+                final byte[] aad = header;
+                return () -> seal(Cipher.DECRYPT_MODE, keySpec, nonce, aad, segment, read);
+            }
+        });
+    }
+
+    private static byte[] nonce(final byte[] prefix, final int index, final boolean last) {
+        return ByteBuffer.allocate(prefixLength + 5).put(prefix).putInt(index).put((byte) (last ? 1 : 0)).array();
+    }
+
+    private static byte[] seal(final int mode, final SecretKeySpec key, final byte[] nonce, final byte[] aad, final byte[] bytes, final int len) throws Exception {
+        final Cipher cipher = ciphers.get();
+        cipher.init(mode, key, new GCMParameterSpec(tagLength * 8, nonce));
+        cipher.updateAAD(aad);
+        return cipher.doFinal(bytes, 0, len);
+    }
+
+    private static int readFully(final InputStream is, final byte[] buf) throws IOException {
+        int pos = 0;
+        while (pos < buf.length) {
+            final int read = is.read(buf, pos, buf.length - pos);
+            if (read < 0) {
+                break;
+            }
+            pos += read;
+        }
+        return pos;
+    }
+
+    private interface Segmenter {
+        /**
+         * reads the next segment from the source, the returned task is run by the workers
+         *
+         * @return null after the last segment
+         */
+        Callable<byte[]> next(DataInputStream is) throws IOException;
+    }
+
+    /**
+     * Reads the source in the caller thread and keeps up to twice the workers busy on the segments ahead.
+     */
+    private static class ParallelSegments extends InputStream {
+        private final DataInputStream source;
+        private final Segmenter segmenter;
+        private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+        private byte[] current;
+        private int pos = 0;
+        private boolean last = false;
+        private boolean closed = false;
+
+        ParallelSegments(final InputStream source, final byte[] header, final Segmenter segmenter) {
+            this.source = new DataInputStream(source);
+            this.segmenter = segmenter;
+            this.current = header != null ? header : new byte[0];
+        }
+
+        private boolean fill() throws IOException {
+            while (pos == current.length) {
+                if (closed) {
+                    throw new IOException("stream closed");
+                }
+                while (!last && pending.size() < threads * 2) {
+                    final Callable<byte[]> task = segmenter.next(source);
+                    if (task == null) {
+                        last = true;
+                        break;
+                    }
+                    pending.add(workers.submit(task));
+                }
+                final Future<byte[]> head = pending.poll();
+                if (head == null) {
+                    return false;
+                }
+                try {
+                    current = head.get();
+                    pos = 0;
+                } catch (final ExecutionException e) {
+                    close();
+                    throw new IOException("segment not authenticated", e.getCause());
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return current[pos++] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            final int n = Math.min(len, current.length - pos);
+            System.arraycopy(current, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return current.length - pos;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pending.forEach(future -> future.cancel(true));
+            pending.clear();
+            source.close();
+        }
+    }
+}
@@ -13,6 +13,8 @@
  */
 package ubicrypt.core.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.commons.lang3.builder.ToStringBuilder;
@@ -21,6 +23,8 @@ import org.apache.commons.lang3.builder.ToStringStyle;
 public class Key {
     private UbiFile.KeyType type = UbiFile.KeyType.aes;
     private byte[] bytes;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Format format;
 
     public Key() {
     }
@@ -42,6 +46,17 @@ public class Key {
         this.type = type;
     }
 
+    /**
+     * layout of the aes encrypted content, null for the legacy single stream
+     */
+    public Format getFormat() {
+        return format;
+    }
+
+    public void setFormat(Format format) {
+        this.format = format;
+    }
+
     public byte[] getBytes() {
         return bytes;
     }
@@ -61,6 +76,7 @@ public class Key {
         return new EqualsBuilder()
                 .append(type, key.type)
                 .append(bytes, key.bytes)
+                .append(format, key.format)
                 .isEquals();
     }
 
@@ -69,6 +85,7 @@ public class Key {
         return new HashCodeBuilder(17, 37)
                 .append(type)
                 .append(bytes)
+                .append(format)
                 .toHashCode();
     }
 
@@ -76,6 +93,18 @@ public class Key {
     public String toString() {
         return new ToStringBuilder(this, ToStringStyle.NO_CLASS_NAME_STYLE)
                 .append("type", type)
+                .append("format", format)
                 .toString();
     }
+
+    public enum Format {
+        /**
+         * one GCM stream, see AESGCM
+         */
+        stream,
+        /**
+         * independently authenticated segments, see SegmentedAESGCM
+         */
+        segmented
+    }
 }
@@ -13,37 +13,86 @@
  */
 package ubicrypt.core.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import ubicrypt.core.provider.UbiProvider;
 import ubicrypt.core.util.PGPKValue;
 
-import static ubicrypt.core.Utils.copySynchronized;
-
 
 public class LocalConfig {
 
     private int version = 1;
 
+    /**
+     * called after any change of the config or of its files
+     */
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
     @JsonTypeInfo(use = JsonTypeInfo.Id.CLASS)
-    private Set<UbiProvider> providers = ConcurrentHashMap.newKeySet();
-    private Set<LocalFile> localFiles = ConcurrentHashMap.newKeySet();
-    private Set<Path> trackedFolders = ConcurrentHashMap.newKeySet();
-    private Set<PGPKValue> ownedPKs = ConcurrentHashMap.newKeySet();
+    private Set<UbiProvider> providers = tracked(Collections.emptySet());
+    private LocalFileSet localFiles = trackedFiles(new LocalFileSet());
+    private Set<Path> trackedFolders = tracked(Collections.emptySet());
+    private Set<PGPKValue> ownedPKs = tracked(Collections.emptySet());
+    /**
+     * the retired devices as given to the clock comparisons, following the set below
+     */
+    @JsonIgnore
+    private final RetiredDevices retired = new RetiredDevices();
+    /**
+     * devices whose counters are folded into the vector clocks base
+     */
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private Set<Integer> retiredDevices = trackedRetired(Collections.emptySet());
+
+    public void onChange(final Runnable listener) {
+        listeners.add(listener);
+    }
+
+    private void changed() {
+        listeners.forEach(Runnable::run);
+    }
+
+    private <T> Set<T> tracked(final Set<T> set) {
+        changed();
+        return new TrackedSet<>(set, this::changed);
+    }
+
+    private Set<Integer> trackedRetired(final Set<Integer> set) {
+        changed();
+        final TrackedSet<Integer> ret = new TrackedSet<>(set, () -> {
+            retired.retire(retiredDevices);
+            changed();
+        });
+        retired.retire(set);
+        return ret;
+    }
+
+    private LocalFileSet trackedFiles(final LocalFileSet set) {
+        changed();
+        set.setListener(this::changed);
+        return set;
+    }
 
     public Set<UbiProvider> getProviders() {
         return providers;
     }
 
     public void setProviders(final Set<UbiProvider> providers) {
-        this.providers = copySynchronized(providers);
+        this.providers = tracked(providers);
     }
 
     public Set<LocalFile> getLocalFiles() {
@@ -51,7 +100,35 @@ public class LocalConfig {
     }
 
     public void setLocalFiles(final Set<LocalFile> localFiles) {
-        this.localFiles = copySynchronized(localFiles);
+        final List<LocalFile> files = localFiles != null ? new ArrayList<>(localFiles) : Collections.emptyList();
+        //the files of the replaced set count as removed
+        this.localFiles.clear();
+        final LocalFileSet next = new LocalFileSet(files);
+        next.markChanged(this.localFiles.drainChanged());
+        this.localFiles = trackedFiles(next);
+    }
+
+    /**
+     * ids of the files changed since the last call, the ones no longer found were removed
+     */
+    public List<UUID> drainChangedFiles() {
+        return localFiles.drainChanged();
+    }
+
+    public void markChangedFiles(final Collection<UUID> ids) {
+        localFiles.markChanged(ids);
+    }
+
+    public Optional<LocalFile> findLocalFile(final Path path) {
+        return localFiles.get(path);
+    }
+
+    public Optional<LocalFile> findLocalFile(final UUID id) {
+        return localFiles.get(id);
+    }
+
+    public Optional<LocalFile> findLocalFile(final UbiFile file) {
+        return file == null ? Optional.empty() : localFiles.get(file.getId());
     }
 
     public Set<Path> getTrackedFolders() {
@@ -59,7 +136,7 @@ public class LocalConfig {
     }
 
     public void setTrackedFolders(Set<Path> trackedFolders) {
-        this.trackedFolders = copySynchronized(trackedFolders);
+        this.trackedFolders = tracked(trackedFolders);
     }
 
     public Set<PGPKValue> getOwnedPKs() {
@@ -67,7 +144,20 @@ public class LocalConfig {
     }
 
     public void setOwnedPKs(Set<PGPKValue> ownedPKs) {
-        this.ownedPKs = copySynchronized(ownedPKs);
+        this.ownedPKs = tracked(ownedPKs);
+    }
+
+    public Set<Integer> getRetiredDevices() {
+        return retiredDevices;
+    }
+
+    public void setRetiredDevices(final Set<Integer> retiredDevices) {
+        this.retiredDevices = trackedRetired(retiredDevices);
+    }
+
+    @JsonIgnore
+    public RetiredDevices getRetired() {
+        return retired;
     }
 
     @Override
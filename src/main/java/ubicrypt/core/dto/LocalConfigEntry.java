@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Record of the local config log: the first one holds the whole config,
+ * the following ones the settings when changed, the files changed and the ids of the files gone.
+ */
+public class LocalConfigEntry {
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private LocalConfig config;
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private List<LocalFile> files = Collections.emptyList();
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private List<UUID> removed = Collections.emptyList();
+
+    public LocalConfig getConfig() {
+        return config;
+    }
+
+    public void setConfig(final LocalConfig config) {
+        this.config = config;
+    }
+
+    public List<LocalFile> getFiles() {
+        return files;
+    }
+
+    public void setFiles(final List<LocalFile> files) {
+        this.files = new ArrayList<>(files);
+    }
+
+    public List<UUID> getRemoved() {
+        return removed;
+    }
+
+    public void setRemoved(final List<UUID> removed) {
+        this.removed = new ArrayList<>(removed);
+    }
+}
@@ -13,9 +13,18 @@
  */
 package ubicrypt.core.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.nio.file.Path;
 import java.util.Optional;
+import java.util.UUID;
 
 public class LocalFile extends UbiFile<LocalFile> {
+    /**
+     * set holding this file, told about id and path changes
+     */
+    @JsonIgnore
+    private transient volatile LocalFileSet index;
 
 
     public static LocalFile copy(UbiFile file) {
@@ -24,6 +33,48 @@ public class LocalFile extends UbiFile<LocalFile> {
         return ret;
     }
 
+    @Override
+    public LocalFile copyFrom(final UbiFile file) {
+        final UUID oldId = id;
+        final Path oldPath = getPath();
+        super.copyFrom(file);
+        reindex(oldId, oldPath);
+        return this;
+    }
+
+    @Override
+    public void setId(final UUID id) {
+        final UUID oldId = this.id;
+        super.setId(id);
+        reindex(oldId, getPath());
+    }
+
+    @Override
+    public void setPath(final Path path) {
+        final Path oldPath = getPath();
+        super.setPath(path);
+        reindex(id, oldPath);
+    }
+
+    @Override
+    protected void changed() {
+        final LocalFileSet set = index;
+        if (set != null) {
+            set.changed(id);
+        }
+    }
+
+    void setIndex(final LocalFileSet index) {
+        this.index = index;
+    }
+
+    private void reindex(final UUID oldId, final Path oldPath) {
+        final LocalFileSet set = index;
+        if (set != null) {
+            set.moved(this, oldId, oldPath);
+        }
+    }
+
     @Override
     public Optional<Key> getEncryption() {
         return Optional.empty();
@@ -0,0 +1,204 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.dto;
+
+import com.google.common.collect.ObjectArrays;
+
+import java.nio.file.Path;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Set of local files indexed by id and by path.
+ * Membership follows {@link UbiFile#equals(Object)}, so the id index is the set itself.
+ * Files notify the set when their id or path changes, keeping the path index in step,
+ * and on any change, passed on to the listener.
+ */
+public class LocalFileSet extends AbstractSet<LocalFile> {
+    private final ConcurrentHashMap<UUID, LocalFile> byId = new ConcurrentHashMap<>();
+    //the members sharing a path in the order they got it, the first one is returned
+    private final ConcurrentHashMap<Path, LocalFile[]> byPath = new ConcurrentHashMap<>();
+    /**
+     * ids of the files changed, added or removed since the last drain
+     */
+    private final Set<UUID> changedIds = ConcurrentHashMap.newKeySet();
+    private volatile Runnable listener = () -> {
+    };
+
+    public LocalFileSet() {
+    }
+
+    public LocalFileSet(final Collection<? extends LocalFile> files) {
+        if (files != null) {
+            addAll(files);
+        }
+    }
+
+    public Optional<LocalFile> get(final UUID id) {
+        return id == null ? Optional.empty() : Optional.ofNullable(byId.get(id));
+    }
+
+    public Optional<LocalFile> get(final Path path) {
+        if (path == null) {
+            return Optional.empty();
+        }
+        final LocalFile[] files = byPath.get(path);
+        return files != null ? Optional.of(files[0]) : Optional.empty();
+    }
+
+    @Override
+    public synchronized boolean add(final LocalFile file) {
+        if (byId.putIfAbsent(file.getId(), file) != null) {
+            return false;
+        }
+        indexPath(file);
+        file.setIndex(this);
+        changed(file.getId());
+        return true;
+    }
+
+    @Override
+    public synchronized boolean remove(final Object o) {
+        if (!(o instanceof UbiFile)) {
+            return false;
+        }
+        final LocalFile file = byId.remove(((UbiFile) o).getId());
+        if (file == null) {
+            return false;
+        }
+        unindexPath(file, file.getPath());
+        file.setIndex(null);
+        changed(file.getId());
+        return true;
+    }
+
+    @Override
+    public boolean contains(final Object o) {
+        return o instanceof UbiFile && byId.containsKey(((UbiFile) o).getId());
+    }
+
+    @Override
+    public Iterator<LocalFile> iterator() {
+        final Iterator<LocalFile> it = byId.values().iterator();
+        return new Iterator<LocalFile>() {
+            private LocalFile current;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public LocalFile next() {
+                return current = it.next();
+            }
+
+            @Override
+            public void remove() {
+                LocalFileSet.this.remove(current);
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return byId.size();
+    }
+
+    @Override
+    public synchronized void clear() {
+        byId.values().forEach(file -> file.setIndex(null));
+        changedIds.addAll(byId.keySet());
+        byId.clear();
+        byPath.clear();
+        changed();
+    }
+
+    void setListener(final Runnable listener) {
+        this.listener = listener;
+    }
+
+    void changed() {
+        listener.run();
+    }
+
+    void changed(final UUID id) {
+        changedIds.add(id);
+        listener.run();
+    }
+
+    /**
+     * ids changed since the last call, the ones no longer in the set were removed
+     */
+    public List<UUID> drainChanged() {
+        final List<UUID> ret = new ArrayList<>();
+        for (final Iterator<UUID> it = changedIds.iterator(); it.hasNext(); ) {
+            ret.add(it.next());
+            it.remove();
+        }
+        return ret;
+    }
+
+    /**
+     * marks the ids changed again, e.g. after a failed write
+     */
+    public void markChanged(final Collection<UUID> ids) {
+        changedIds.addAll(ids);
+    }
+
+    synchronized void moved(final LocalFile file, final UUID oldId, final Path oldPath) {
+        if (!file.getId().equals(oldId)) {
+            changedIds.add(oldId);
+            byId.remove(oldId, file);
+            if (byId.putIfAbsent(file.getId(), file) != null) {
+                //another member already owns the new id, this one is dropped as a duplicate
+                unindexPath(file, oldPath);
+                file.setIndex(null);
+                return;
+            }
+        }
+        if (oldPath != null && oldPath.equals(file.getPath())) {
+            return;
+        }
+        unindexPath(file, oldPath);
+        indexPath(file);
+    }
+
+    private void indexPath(final LocalFile file) {
+        if (file.getPath() != null) {
+            byPath.merge(file.getPath(), new LocalFile[]{file}, (files, added) -> ObjectArrays.concat(files, file));
+        }
+    }
+
+    /**
+     * drops the file from the members of the path, the next one sharing it takes over
+     */
+    private void unindexPath(final LocalFile file, final Path path) {
+        if (path == null) {
+            return;
+        }
+        byPath.computeIfPresent(path, (key, files) -> {
+            final LocalFile[] ret = Arrays.stream(files).filter(other -> other != file).toArray(LocalFile[]::new);
+            return ret.length > 0 ? ret : null;
+        });
+    }
+}
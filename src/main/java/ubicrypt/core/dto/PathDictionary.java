@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.dto;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import java.nio.file.Path;
+
+/**
+ * Shared instances of the file paths, so the local file and its copies on every provider hold the same one.
+ * Entries go away with the last file referencing them.
+ */
+public final class PathDictionary {
+    private static final Interner<Path> paths = Interners.newWeakInterner();
+
+    private PathDictionary() {
+    }
+
+    public static Path intern(final Path path) {
+        return path != null ? paths.intern(path) : null;
+    }
+}
@@ -13,9 +13,14 @@
  */
 package ubicrypt.core.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
 import ubicrypt.core.provider.UbiProvider;
@@ -23,9 +28,28 @@ import ubicrypt.core.provider.UbiProvider;
 import static ubicrypt.core.Utils.copySynchronized;
 
 public class RemoteConfig {
-    private Set<RemoteFile> remoteFiles = ConcurrentHashMap.newKeySet();
+    private RemoteFileSet remoteFiles = new RemoteFileSet();
     @JsonTypeInfo(use = JsonTypeInfo.Id.CLASS)
     private Set<UbiProvider> providers = ConcurrentHashMap.newKeySet();
+    /**
+     * chunk name -> number of references from remote files
+     */
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private Map<String, Long> chunks = new ConcurrentHashMap<>();
+    /**
+     * secret for deriving chunk keys from their content
+     */
+    private byte[] chunkSecret;
+    /**
+     * device -> last time it saved a file on this provider
+     */
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private Map<Integer, Instant> devices = new ConcurrentHashMap<>();
+    /**
+     * devices whose counters are folded into the vector clocks base
+     */
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private Set<Integer> retiredDevices = ConcurrentHashMap.newKeySet();
 
     public RemoteConfig() {
     }
@@ -35,7 +59,15 @@ public class RemoteConfig {
     }
 
     public void setRemoteFiles(final Set<RemoteFile> remoteFiles) {
-        this.remoteFiles = copySynchronized(remoteFiles);
+        this.remoteFiles = new RemoteFileSet(remoteFiles);
+    }
+
+    public Optional<RemoteFile> findRemoteFile(final UUID id) {
+        return remoteFiles.get(id);
+    }
+
+    public Optional<RemoteFile> findRemoteFile(final UbiFile file) {
+        return file == null ? Optional.empty() : remoteFiles.get(file.getId());
     }
 
     public Set<UbiProvider> getProviders() {
@@ -45,4 +77,36 @@ public class RemoteConfig {
     public void setProviders(Set<UbiProvider> providers) {
         this.providers = copySynchronized(providers);
     }
+
+    public Map<String, Long> getChunks() {
+        return chunks;
+    }
+
+    public void setChunks(final Map<String, Long> chunks) {
+        this.chunks = new ConcurrentHashMap<>(chunks);
+    }
+
+    public byte[] getChunkSecret() {
+        return chunkSecret;
+    }
+
+    public void setChunkSecret(final byte[] chunkSecret) {
+        this.chunkSecret = chunkSecret;
+    }
+
+    public Map<Integer, Instant> getDevices() {
+        return devices;
+    }
+
+    public void setDevices(final Map<Integer, Instant> devices) {
+        this.devices = new ConcurrentHashMap<>(devices);
+    }
+
+    public Set<Integer> getRetiredDevices() {
+        return retiredDevices;
+    }
+
+    public void setRetiredDevices(final Set<Integer> retiredDevices) {
+        this.retiredDevices = copySynchronized(retiredDevices);
+    }
 }
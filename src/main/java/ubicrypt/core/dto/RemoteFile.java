@@ -13,13 +13,26 @@
  */
 package ubicrypt.core.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 
+import ubicrypt.core.codec.Codec;
 import ubicrypt.core.crypto.AESGCM;
 
 public class RemoteFile extends UbiFile<RemoteFile> {
     private Key key = new Key(AESGCM.rndKey());
     private String remoteName;
+    private Codec codec;
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private List<Chunk> chunks = Collections.emptyList();
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private List<RemoteBlob> deltas = Collections.emptyList();
+    private RemoteBlob signature;
 
     public static RemoteFile createFrom(UbiFile file) {
         RemoteFile ret = new RemoteFile();
@@ -31,6 +44,10 @@ public class RemoteFile extends UbiFile<RemoteFile> {
         super.copyFrom(file);
         key = file.getKey();
         remoteName = file.getRemoteName();
+        codec = file.getCodec();
+        setChunks(file.getChunks());
+        setDeltas(file.getDeltas());
+        signature = file.getSignature();
         return this;
     }
 
@@ -50,6 +67,61 @@ public class RemoteFile extends UbiFile<RemoteFile> {
         this.remoteName = remoteName;
     }
 
+    /**
+     * compression of the stored content, null when stored before codecs were recorded
+     */
+    public Codec getCodec() {
+        return codec;
+    }
+
+    public void setCodec(Codec codec) {
+        this.codec = codec;
+    }
+
+    public List<Chunk> getChunks() {
+        return chunks;
+    }
+
+    public void setChunks(List<Chunk> chunks) {
+        this.chunks = chunks.isEmpty() ? Collections.emptyList() : new ArrayList<>(chunks);
+    }
+
+    /**
+     * content stored as chunks rather than as single remote object
+     */
+    @JsonIgnore
+    public boolean isChunked() {
+        return !chunks.isEmpty();
+    }
+
+    /**
+     * patches to apply in order to the remote object
+     */
+    public List<RemoteBlob> getDeltas() {
+        return deltas;
+    }
+
+    public void setDeltas(List<RemoteBlob> deltas) {
+        this.deltas = deltas.isEmpty() ? Collections.emptyList() : new ArrayList<>(deltas);
+    }
+
+    public void addDelta(RemoteBlob delta) {
+        final List<RemoteBlob> next = new ArrayList<>(deltas);
+        next.add(delta);
+        deltas = next;
+    }
+
+    /**
+     * block checksums of the latest version, base of the next delta
+     */
+    public RemoteBlob getSignature() {
+        return signature;
+    }
+
+    public void setSignature(RemoteBlob signature) {
+        this.signature = signature;
+    }
+
     @Override
     public Optional<Key> getEncryption() {
         return Optional.ofNullable(key);
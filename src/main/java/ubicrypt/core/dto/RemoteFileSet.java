@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.dto;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Set of remote files keyed by id.
+ * Membership follows {@link UbiFile#equals(Object)}, so lookups by any file with the same id are constant time.
+ * Serialized as a plain array, like any other set.
+ */
+public class RemoteFileSet extends AbstractSet<RemoteFile> {
+    private final ConcurrentHashMap<UUID, RemoteFile> byId = new ConcurrentHashMap<>();
+
+    public RemoteFileSet() {
+    }
+
+    public RemoteFileSet(final Collection<? extends RemoteFile> files) {
+        if (files != null) {
+            addAll(files);
+        }
+    }
+
+    public Optional<RemoteFile> get(final UUID id) {
+        return id == null ? Optional.empty() : Optional.ofNullable(byId.get(id));
+    }
+
+    @Override
+    public boolean add(final RemoteFile file) {
+        return byId.putIfAbsent(file.getId(), file) == null;
+    }
+
+    @Override
+    public boolean remove(final Object o) {
+        return o instanceof UbiFile && byId.remove(((UbiFile) o).getId()) != null;
+    }
+
+    @Override
+    public boolean contains(final Object o) {
+        return o instanceof UbiFile && byId.containsKey(((UbiFile) o).getId());
+    }
+
+    @Override
+    public Iterator<RemoteFile> iterator() {
+        return byId.values().iterator();
+    }
+
+    @Override
+    public int size() {
+        return byId.size();
+    }
+
+    @Override
+    public void clear() {
+        byId.clear();
+    }
+}
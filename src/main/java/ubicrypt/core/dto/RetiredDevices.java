@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.dto;
+
+import com.google.common.hash.Hashing;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Devices whose clock counters are folded into the base, see {@link VClock#fold(RetiredDevices)}.
+ * Held by the local config and passed to the clock comparisons; it only grows.
+ */
+public class RetiredDevices {
+    /**
+     * sorted, replaced on each change
+     */
+    private volatile int[] devices = new int[0];
+
+    public synchronized void retire(final Collection<Integer> retiring) {
+        final int[] current = devices;
+        final int[] next = retiring.stream().mapToInt(Integer::intValue)
+                .filter(device -> Arrays.binarySearch(current, device) < 0)
+                .distinct()
+                .toArray();
+        if (next.length == 0) {
+            return;
+        }
+        final int[] ret = Arrays.copyOf(current, current.length + next.length);
+        System.arraycopy(next, 0, ret, current.length, next.length);
+        Arrays.sort(ret);
+        devices = ret;
+    }
+
+    public boolean isRetired(final int device) {
+        return Arrays.binarySearch(devices, device) >= 0;
+    }
+
+    /**
+     * id the device increments under: itself, or the first successor not retired.
+     * The counters folded before stay in the base, the new ones are a live entry of their own,
+     * so concurrent versions of returning devices still conflict.
+     */
+    public int liveId(final int device) {
+        final int[] current = devices;
+        int ret = device;
+        while (Arrays.binarySearch(current, ret) >= 0) {
+            ret = Hashing.murmur3_32().hashInt(ret).asInt();
+        }
+        return ret;
+    }
+
+    int[] devices() {
+        return devices;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(devices);
+    }
+}
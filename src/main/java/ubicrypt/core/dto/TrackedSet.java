@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.dto;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Concurrent set calling the listener after each change.
+ */
+class TrackedSet<E> extends AbstractSet<E> {
+    private final Set<E> set = ConcurrentHashMap.newKeySet();
+    private final Runnable listener;
+
+    TrackedSet(final Collection<? extends E> elements, final Runnable listener) {
+        set.addAll(elements);
+        this.listener = listener;
+    }
+
+    @Override
+    public boolean add(final E e) {
+        return changed(set.add(e));
+    }
+
+    @Override
+    public boolean remove(final Object o) {
+        return changed(set.remove(o));
+    }
+
+    @Override
+    public boolean contains(final Object o) {
+        return set.contains(o);
+    }
+
+    @Override
+    public void clear() {
+        set.clear();
+        listener.run();
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        final Iterator<E> it = set.iterator();
+        return new Iterator<E>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public E next() {
+                return it.next();
+            }
+
+            @Override
+            public void remove() {
+                it.remove();
+                listener.run();
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return set.size();
+    }
+
+    private boolean changed(final boolean changed) {
+        if (changed) {
+            listener.run();
+        }
+        return changed;
+    }
+}
@@ -36,13 +36,14 @@ import static com.google.common.base.Preconditions.checkNotNull;
 public abstract class UbiFile<T extends UbiFile> implements Comparable<UbiFile> {
 
     protected UUID id = UUID.randomUUID();
-    protected VClock vclock = new VClock();
+    protected VClock vclock = owned(new VClock());
     protected byte[] sha1;
     protected Instant lastModified = Instant.now();
     protected boolean deleted = false;
     protected boolean removed = false;
     protected boolean active = true;
     protected boolean ghost = false;
+    //shared through the dictionary with the copies on every provider
     protected Path path;
     protected long size;
 
@@ -53,9 +54,9 @@ public abstract class UbiFile<T extends UbiFile> implements Comparable<UbiFile>
     public abstract String getName();
 
     public T copyFrom(UbiFile file) {
-        id = UUID.fromString(file.getId().toString());
+        id = file.getId();
         try {
-            vclock = (VClock) file.getVclock().clone();
+            vclock = owned((VClock) file.getVclock().clone());
         } catch (CloneNotSupportedException e) {
             Throwables.propagate(e);
         }
@@ -65,11 +66,18 @@ public abstract class UbiFile<T extends UbiFile> implements Comparable<UbiFile>
         removed = file.isRemoved();
         active = file.isActive();
         ghost = file.isGhost();
-        path = file.getPath();
+        path = PathDictionary.intern(file.getPath());
         size = file.getSize();
+        changed();
         return (T) this;
     }
 
+    /**
+     * called after any field is set
+     */
+    protected void changed() {
+    }
+
     @Override
     public boolean equals(final Object o) {
         if (this == o) {
@@ -93,6 +101,7 @@ public abstract class UbiFile<T extends UbiFile> implements Comparable<UbiFile>
 
     public void setId(final UUID id) {
         this.id = id;
+        changed();
     }
 
     public VClock getVclock() {
@@ -100,7 +109,21 @@ public abstract class UbiFile<T extends UbiFile> implements Comparable<UbiFile>
     }
 
     public void setVclock(final VClock vclock) {
-        this.vclock = vclock;
+        this.vclock = owned(vclock);
+        changed();
+    }
+
+    /**
+     * the clock tells this file about its increments, the replaced one no longer does
+     */
+    private VClock owned(final VClock vclock) {
+        if (this.vclock != null && this.vclock != vclock) {
+            this.vclock.setOwner(null);
+        }
+        if (vclock != null) {
+            vclock.setOwner(this);
+        }
+        return vclock;
     }
 
     public byte[] getSha1() {
@@ -109,6 +132,7 @@ public abstract class UbiFile<T extends UbiFile> implements Comparable<UbiFile>
 
     public void setSha1(final byte[] sha1) {
         this.sha1 = sha1;
+        changed();
     }
 
     public Instant getLastModified() {
@@ -117,6 +141,7 @@ public abstract class UbiFile<T extends UbiFile> implements Comparable<UbiFile>
 
     public void setLastModified(final Instant lastModified) {
         this.lastModified = lastModified;
+        changed();
     }
 
     public boolean isDeleted() {
@@ -125,6 +150,7 @@ public abstract class UbiFile<T extends UbiFile> implements Comparable<UbiFile>
 
     public void setDeleted(final boolean deleted) {
         this.deleted = deleted;
+        changed();
     }
 
     public boolean isRemoved() {
@@ -133,6 +159,7 @@ public abstract class UbiFile<T extends UbiFile> implements Comparable<UbiFile>
 
     public void setRemoved(final boolean removed) {
         this.removed = removed;
+        changed();
     }
 
     public boolean isActive() {
@@ -141,6 +168,7 @@ public abstract class UbiFile<T extends UbiFile> implements Comparable<UbiFile>
 
     public void setActive(final boolean active) {
         this.active = active;
+        changed();
     }
 
     public Path getPath() {
@@ -148,7 +176,8 @@ public abstract class UbiFile<T extends UbiFile> implements Comparable<UbiFile>
     }
 
     public void setPath(final Path path) {
-        this.path = path;
+        this.path = PathDictionary.intern(path);
+        changed();
     }
 
     public long getSize() {
@@ -157,6 +186,7 @@ public abstract class UbiFile<T extends UbiFile> implements Comparable<UbiFile>
 
     public void setSize(final long size) {
         this.size = size;
+        changed();
     }
 
     public boolean isGhost() {
@@ -165,6 +195,7 @@ public abstract class UbiFile<T extends UbiFile> implements Comparable<UbiFile>
 
     public void setGhost(boolean ghost) {
         this.ghost = ghost;
+        changed();
     }
 
     public VClock.Comparison compare(@NotNull UbiFile file) {
@@ -172,6 +203,11 @@ public abstract class UbiFile<T extends UbiFile> implements Comparable<UbiFile>
         return getVclock().compare(file.getVclock());
     }
 
+    public VClock.Comparison compare(@NotNull UbiFile file, final RetiredDevices retired) {
+        checkNotNull(file, "file must be not null");
+        return getVclock().compare(file.getVclock(), retired);
+    }
+
     @Override
     public int compareTo(UbiFile file) {
         switch (compare(file)) {
@@ -13,54 +13,165 @@
  */
 package ubicrypt.core.dto;
 
-import com.google.common.collect.ImmutableMap;
-
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.TreeMap;
+import java.util.function.IntConsumer;
 
+/**
+ * Version vector kept as one immutable array of device and counter pairs, sorted by device.
+ * Increments replace the array, so comparing reads it without locks or copies and cloning shares it.
+ * <p>
+ * Retired devices count as a single base device: their counters are summed into it when comparing,
+ * and {@link #fold(RetiredDevices)} stores the sum so their entries can be dropped. A retired device incrementing again
+ * counts under a successor id, see {@link RetiredDevices#liveId(int)}, so its new versions never merge into the base.
+ * The retired devices are given to each comparison, see {@link LocalConfig#getRetired()}.
+ */
 public class VClock implements Cloneable {
-    final ConcurrentHashMap<Integer, AtomicLong> map;
+    private static final long[] EMPTY = new long[0];
+    /**
+     * key of the base entry, below any device
+     */
+    private static final long BASE = Long.MIN_VALUE;
+    private static final int[] NONE_RETIRED = new int[0];
+    /**
+     * device at even positions, its counter at the following odd one
+     */
+    private volatile long[] entries;
+    /**
+     * file told about the changes made in place
+     */
+    private transient volatile UbiFile owner;
 
     public VClock() {
-        this.map = new ConcurrentHashMap<>();
+        this.entries = EMPTY;
     }
 
-    private VClock(ConcurrentHashMap<Integer, AtomicLong> map) {
-        this.map = map;
+    private VClock(long[] entries) {
+        this.entries = entries;
     }
 
-    public void increment(int device) {
-        map.computeIfAbsent(device, i -> new AtomicLong(0)).incrementAndGet();
+    /**
+     * @param device the live id of the device, see {@link RetiredDevices#liveId(int)}
+     */
+    public synchronized void increment(final int device) {
+        final long[] current = entries;
+        final int pos = indexOf(current, device);
+        if (pos >= 0) {
+            final long[] next = current.clone();
+            next[pos + 1]++;
+            entries = next;
+        } else {
+            entries = insert(current, -pos - 1, device, 1);
+        }
+        changed();
     }
 
-    public Comparison compare(VClock v2) {
-        if (map.size() > v2.getMap().size()) {
-            return Comparison.newer;
+    void setOwner(final UbiFile owner) {
+        this.owner = owner;
+    }
+
+    private void changed() {
+        final UbiFile file = owner;
+        if (file != null) {
+            file.changed();
         }
-        if (v2.getMap().size() > map.size()) {
-            return Comparison.older;
+    }
+
+    /**
+     * counter of the device, 0 if absent or already folded
+     */
+    public long get(final int device) {
+        final long[] current = entries;
+        final int pos = indexOf(current, device);
+        return pos >= 0 ? current[pos + 1] : 0;
+    }
+
+    /**
+     * visit the devices holding an entry of their own
+     */
+    public void forEachDevice(final IntConsumer consumer) {
+        final long[] current = entries;
+        for (int i = 0; i < current.length; i += 2) {
+            if (current[i] != BASE) {
+                consumer.accept((int) current[i]);
+            }
         }
-        for (int node : map.keySet()) {
-            if (v2.map.get(node) == null) {
-                return Comparison.conflict;
+    }
+
+    /**
+     * move the counters of the retired devices into the base
+     */
+    public synchronized void fold(final RetiredDevices retired) {
+        final long[] current = entries;
+        final int[] rdevices = retired.devices();
+        int folded = 0;
+        long base = 0;
+        for (int i = 0; i < current.length; i += 2) {
+            if (current[i] == BASE) {
+                base += current[i + 1];
+            } else if (Arrays.binarySearch(rdevices, (int) current[i]) >= 0) {
+                base += current[i + 1];
+                folded++;
             }
         }
-        boolean v1Bigger = false;
-        boolean v2Bigger = false;
-        for (int node : map.keySet()) {
-            if (v1Bigger && v2Bigger) {
-                break;
+        if (folded == 0) {
+            return;
+        }
+        final long[] next = new long[current.length - folded * 2 + (current.length > 0 && current[0] == BASE ? 0 : 2)];
+        next[0] = BASE;
+        next[1] = base;
+        int pos = 2;
+        for (int i = 0; i < current.length; i += 2) {
+            if (current[i] != BASE && Arrays.binarySearch(rdevices, (int) current[i]) < 0) {
+                next[pos++] = current[i];
+                next[pos++] = current[i + 1];
             }
-            long v1Version = map.get(node).get();
-            long v2Version = v2.getMap().get(node).get();
-            if (v1Version > v2Version) {
-                v1Bigger = true;
-            } else if (v1Version < v2Version) {
-                v2Bigger = true;
+        }
+        entries = next;
+        changed();
+    }
+
+    /**
+     * comparison of clocks with no retired devices but the ones already folded into the base
+     */
+    public Comparison compare(final VClock v2) {
+        return compare(v2, NONE_RETIRED);
+    }
+
+    public Comparison compare(final VClock v2, final RetiredDevices retired) {
+        return compare(v2, retired.devices());
+    }
+
+    private Comparison compare(final VClock v2, final int[] rdevices) {
+        final long[] e1 = entries;
+        final long[] e2 = v2.entries;
+        final long base1 = base(e1, rdevices);
+        final long base2 = base(e2, rdevices);
+        boolean v1Bigger = base1 > base2;
+        boolean v2Bigger = base1 < base2;
+        //merge of the live entries sorted by device, a missing one counts 0
+        int i = next(e1, 0, rdevices);
+        int j = next(e2, 0, rdevices);
+        while ((i < e1.length || j < e2.length) && !(v1Bigger && v2Bigger)) {
+            if (j >= e2.length || (i < e1.length && e1[i] < e2[j])) {
+                v1Bigger |= e1[i + 1] > 0;
+                i = next(e1, i + 2, rdevices);
+            } else if (i >= e1.length || e2[j] < e1[i]) {
+                v2Bigger |= e2[j + 1] > 0;
+                j = next(e2, j + 2, rdevices);
+            } else {
+                if (e1[i + 1] > e2[j + 1]) {
+                    v1Bigger = true;
+                } else if (e1[i + 1] < e2[j + 1]) {
+                    v2Bigger = true;
+                }
+                i = next(e1, i + 2, rdevices);
+                j = next(e2, j + 2, rdevices);
             }
         }
         if (!v1Bigger && !v2Bigger) {
@@ -80,22 +191,101 @@ public class VClock implements Cloneable {
         }
     }
 
-    public Map<Integer, AtomicLong> getMap() {
-        return ImmutableMap.copyOf(map);
+    public Map<Integer, Long> getMap() {
+        final long[] current = entries;
+        final Map<Integer, Long> ret = new TreeMap<>();
+        for (int i = 0; i < current.length; i += 2) {
+            if (current[i] != BASE) {
+                ret.put((int) current[i], current[i + 1]);
+            }
+        }
+        return Collections.unmodifiableMap(ret);
+    }
+
+    public synchronized void setMap(final Map<Integer, ? extends Number> map) {
+        final Long base = getBase();
+        final long[] next = new long[map.size() * 2];
+        final int[] devices = map.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        for (int i = 0; i < devices.length; i++) {
+            next[i * 2] = devices[i];
+            next[i * 2 + 1] = map.get(devices[i]).longValue();
+        }
+        entries = base != null ? insert(next, 0, BASE, base) : next;
+        changed();
+    }
+
+    /**
+     * sum of the counters already folded, null if none
+     */
+    public Long getBase() {
+        final long[] current = entries;
+        return current.length > 0 && current[0] == BASE ? current[1] : null;
+    }
+
+    public synchronized void setBase(final Long base) {
+        final long[] current = entries;
+        final long[] stripped = current.length > 0 && current[0] == BASE ? Arrays.copyOfRange(current, 2, current.length) : current;
+        entries = base != null && base > 0 ? insert(stripped, 0, BASE, base) : stripped;
+        changed();
+    }
+
+    private static long[] insert(final long[] current, final int pos, final long key, final long value) {
+        final long[] next = new long[current.length + 2];
+        System.arraycopy(current, 0, next, 0, pos);
+        next[pos] = key;
+        next[pos + 1] = value;
+        System.arraycopy(current, pos, next, pos + 2, current.length - pos);
+        return next;
+    }
+
+    private static long base(final long[] entries, final int[] rdevices) {
+        long ret = 0;
+        for (int i = 0; i < entries.length; i += 2) {
+            if (entries[i] == BASE || (rdevices.length > 0 && Arrays.binarySearch(rdevices, (int) entries[i]) >= 0)) {
+                ret += entries[i + 1];
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * position of the first entry from pos which is neither the base nor a retired device
+     */
+    private static int next(final long[] entries, int pos, final int[] rdevices) {
+        while (pos < entries.length && (entries[pos] == BASE || (rdevices.length > 0 && Arrays.binarySearch(rdevices, (int) entries[pos]) >= 0))) {
+            pos += 2;
+        }
+        return pos;
+    }
+
+    private static int indexOf(final long[] entries, final int device) {
+        int low = 0;
+        int high = entries.length / 2 - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final long midDevice = entries[mid * 2];
+            if (midDevice < device) {
+                low = mid + 1;
+            } else if (midDevice > device) {
+                high = mid - 1;
+            } else {
+                return mid * 2;
+            }
+        }
+        return -(low * 2) - 1;
     }
 
     @Override
     public String toString() {
         return new ToStringBuilder(this, ToStringStyle.NO_CLASS_NAME_STYLE)
-                .append("map", map)
+                .append("map", getMap())
+                .append("base", getBase())
                 .toString();
     }
 
     @Override
     public Object clone() throws CloneNotSupportedException {
-        return new VClock(map.entrySet().stream().collect(ConcurrentHashMap<Integer, AtomicLong>::new,
-                (ConcurrentHashMap<Integer, AtomicLong> map, Map.Entry<Integer, AtomicLong> entry) -> map.put(entry.getKey(), new AtomicLong(entry.getValue().longValue())),
-                (ConcurrentHashMap<Integer, AtomicLong> map1, ConcurrentHashMap<Integer, AtomicLong> map2) -> map1.putAll(map2)));
+        return new VClock(entries);
     }
 
     public enum Comparison {
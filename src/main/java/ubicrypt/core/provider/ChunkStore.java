@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.provider;
+
+import com.google.common.base.Throwables;
+import com.google.common.io.BaseEncoding;
+
+import org.slf4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import rx.Observable;
+import ubicrypt.core.codec.Codec;
+import ubicrypt.core.crypto.AESGCM;
+import ubicrypt.core.dto.Chunk;
+import ubicrypt.core.dto.RemoteConfig;
+import ubicrypt.core.util.ContentChunker;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.slf4j.LoggerFactory.getLogger;
+import static rx.Observable.just;
+
+/**
+ * Deduplicated block store of a provider.
+ * Files are split by {@link ContentChunker}, every chunk is encrypted with a key derived from its content
+ * and stored once under a name derived from the key. The {@link RemoteConfig} counts the references to each chunk.
+ */
+public class ChunkStore {
+    private static final Logger log = getLogger(ChunkStore.class);
+    private final UbiProvider provider;
+
+    public ChunkStore(final UbiProvider provider) {
+        checkNotNull(provider, "provider must not be null");
+        this.provider = provider;
+    }
+
+    /**
+     * chunk descriptor, key is HMAC(chunkSecret, content) so the provider can't confirm a known content
+     */
+    static Chunk chunk(final byte[] secret, final byte[] bytes) {
+        try {
+            final Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+            final byte[] key = mac.doFinal(bytes);
+            final String name = BaseEncoding.base16().lowerCase().encode(MessageDigest.getInstance("SHA-256").digest(key));
+            return new Chunk(name, key, bytes.length);
+        } catch (final Exception e) {
+            Throwables.propagate(e);
+        }
+        return null;
+    }
+
+    private static byte[] secret(final RemoteConfig remoteConfig) {
+        if (remoteConfig.getChunkSecret() == null) {
+            remoteConfig.setChunkSecret(AESGCM.rndKey());
+        }
+        return remoteConfig.getChunkSecret();
+    }
+
+    /**
+     * Uploads the chunks of the stream which are not yet stored in the provider.
+     *
+     * If the upload fails, the chunks it stored are deleted again.
+     *
+     * @return the ordered list of chunks composing the stream, already referenced in the remote config
+     */
+    public Observable<List<Chunk>> put(final RemoteConfig remoteConfig, final InputStream is) {
+        final byte[] secret = secret(remoteConfig);
+        final Set<String> uploading = ConcurrentHashMap.newKeySet();
+        final List<String> stored = new CopyOnWriteArrayList<>();
+        //the chunker is read ahead, a broken source must not cut off the upload in flight or its chunk is never discarded
+        return Observable.from(() -> new ContentChunker(is))
+                .concatMapDelayError(bytes -> {
+                    final Chunk chunk = chunk(secret, bytes);
+                    if (remoteConfig.getChunks().containsKey(chunk.getName()) || !uploading.add(chunk.getName())) {
+                        log.trace("chunk:{} already stored", chunk.getName());
+                        return just(chunk);
+                    }
+                    return provider.put(chunk.getName(), AESGCM.encryptIs(chunk.getKey(), Codec.deflateBest.encode(new ByteArrayInputStream(bytes))))
+                            .map(saved -> {
+                                if (!saved) {
+                                    throw new IllegalStateException("chunk not stored:" + chunk.getName());
+                                }
+                                stored.add(chunk.getName());
+                                return chunk;
+                            });
+                })
+                .toList()
+                .doOnNext(chunks -> {
+                    chunks.forEach(chunk -> remoteConfig.getChunks().merge(chunk.getName(), 1L, Long::sum));
+                    log.debug("stored chunks:{}, new:{}, provider:{}", chunks.size(), uploading.size(), provider);
+                })
+                .onErrorResumeNext(err -> discard(remoteConfig, stored).flatMap(res -> Observable.<List<Chunk>>error(err)));
+    }
+
+    /**
+     * deletes the chunks uploaded by a failed put, unless referenced by another file meanwhile
+     */
+    private Observable<Boolean> discard(final RemoteConfig remoteConfig, final List<String> names) {
+        final List<String> orphans = names.stream()
+                .filter(name -> !remoteConfig.getChunks().containsKey(name))
+                .collect(Collectors.toList());
+        if (orphans.isEmpty()) {
+            return just(true);
+        }
+        log.debug("failed upload, delete chunks:{}, provider:{}", orphans.size(), provider);
+        return delete(orphans);
+    }
+
+    /**
+     * Drops the references to the chunks and deletes the ones not referenced any longer.
+     */
+    public Observable<Boolean> release(final RemoteConfig remoteConfig, final List<Chunk> chunks) {
+        final List<String> orphans = new ArrayList<>();
+        chunks.forEach(chunk -> {
+            final Long count = remoteConfig.getChunks().get(chunk.getName());
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                remoteConfig.getChunks().put(chunk.getName(), count - 1);
+                return;
+            }
+            remoteConfig.getChunks().remove(chunk.getName());
+            orphans.add(chunk.getName());
+        });
+        if (orphans.isEmpty()) {
+            return just(true);
+        }
+        log.debug("delete orphan chunks:{}, provider:{}", orphans.size(), provider);
+        return delete(orphans);
+    }
+
+    private Observable<Boolean> delete(final List<String> orphans) {
+        return Observable.from(orphans)
+                .concatMap(name -> provider.delete(name)
+                        .onErrorReturn(err -> {
+                            log.warn("error deleting chunk:{}, provider:{}", name, provider, err);
+                            return false;
+                        }))
+                .lastOrDefault(true)
+                .map(res -> true);
+    }
+
+    /**
+     * Reassembles the content, every chunk is fetched when the previous has been read.
+     */
+    public InputStream get(final List<Chunk> chunks) {
+        final Iterator<Chunk> it = chunks.iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return it.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                final Chunk chunk = it.next();
+                return Codec.deflateBest.decode(AESGCM.decryptIs(chunk.getKey(), provider.get(chunk.getName()).toBlocking().single()));
+            }
+        });
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.provider;
+
+import org.slf4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import rx.Observable;
+import rx.schedulers.Schedulers;
+import ubicrypt.core.codec.Codec;
+import ubicrypt.core.crypto.AESGCM;
+import ubicrypt.core.dto.RemoteBlob;
+import ubicrypt.core.util.BlockSignature;
+import ubicrypt.core.util.DeltaEncoder;
+import ubicrypt.core.util.DeltaPatcher;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.slf4j.LoggerFactory.getLogger;
+import static rx.Observable.just;
+
+/**
+ * Signatures and deltas of the files of a provider uploaded incrementally.
+ * A file is the remote object (base) patched in order by its deltas, the signature describes the latest version.
+ */
+public class DeltaStore {
+    private static final Logger log = getLogger(DeltaStore.class);
+    private final UbiProvider provider;
+
+    public DeltaStore(final UbiProvider provider) {
+        checkNotNull(provider, "provider must not be null");
+        this.provider = provider;
+    }
+
+    private InputStream open(final RemoteBlob blob) {
+        return Codec.deflateBest.decode(AESGCM.decryptIs(blob.getKey(), provider.get(blob.getName()).toBlocking().single()));
+    }
+
+    private Observable<RemoteBlob> store(final InputStream is, final long size) {
+        final byte[] key = AESGCM.rndKey();
+        return provider.post(AESGCM.encryptIs(key, Codec.deflateBest.encode(is))).map(pid -> new RemoteBlob(pid, key, size));
+    }
+
+    public Observable<BlockSignature> signature(final RemoteBlob blob) {
+        return Observable.<BlockSignature>create(subscriber -> {
+            try (final InputStream is = open(blob)) {
+                subscriber.onNext(BlockSignature.read(is));
+                subscriber.onCompleted();
+            } catch (final Exception e) {
+                subscriber.onError(e);
+            }
+        }).subscribeOn(Schedulers.io());
+    }
+
+    /**
+     * Stores the signature under a new name, the previous one is still readable with the key of the saved config
+     * and must be released by the caller once the config referencing the new one is saved.
+     */
+    public Observable<RemoteBlob> putSignature(final BlockSignature signature) {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try {
+            signature.write(bos);
+        } catch (final IOException e) {
+            return Observable.error(e);
+        }
+        return store(new ByteArrayInputStream(bos.toByteArray()), bos.size());
+    }
+
+    /**
+     * Computes the delta of the stream against the signature and stores it.
+     */
+    public Observable<RemoteBlob> putDelta(final BlockSignature base, final InputStream is) {
+        return Observable.<Path>create(subscriber -> {
+            Path delta = null;
+            try {
+                delta = Files.createTempFile("ubicrypt", ".delta");
+                final long literal;
+                try (final OutputStream os = Files.newOutputStream(delta)) {
+                    literal = DeltaEncoder.encode(base, is, os);
+                } finally {
+                    is.close();
+                }
+                log.debug("delta literal bytes:{}, size:{}, provider:{}", literal, Files.size(delta), provider);
+                subscriber.onNext(delta);
+                subscriber.onCompleted();
+            } catch (final Exception e) {
+                if (delta != null) {
+                    delta.toFile().delete();
+                }
+                subscriber.onError(e);
+            }
+        }).subscribeOn(Schedulers.io())
+                .flatMap(delta -> {
+                    try {
+                        final long size = Files.size(delta);
+                        return store(Files.newInputStream(delta, StandardOpenOption.DELETE_ON_CLOSE), size);
+                    } catch (final IOException e) {
+                        delta.toFile().delete();
+                        return Observable.error(e);
+                    }
+                });
+    }
+
+    /**
+     * Deletes the blobs, failures are only logged.
+     */
+    public Observable<Boolean> release(final List<RemoteBlob> blobs) {
+        if (blobs.isEmpty()) {
+            return just(true);
+        }
+        return Observable.from(blobs)
+                .concatMap(blob -> provider.delete(blob.getName())
+                        .onErrorReturn(err -> {
+                            log.warn("error deleting blob:{}, provider:{}", blob.getName(), provider, err);
+                            return false;
+                        }))
+                .lastOrDefault(true)
+                .map(res -> true);
+    }
+
+    /**
+     * Applies the deltas in order to the base content.
+     *
+     * @return the latest version, backed by a temporary file removed on close
+     */
+    public Observable<InputStream> restore(final InputStream base, final List<RemoteBlob> deltas) {
+        return Observable.<InputStream>create(subscriber -> {
+            Path current = null;
+            try {
+                current = Files.createTempFile("ubicrypt", ".base");
+                try (final InputStream is = base) {
+                    Files.copy(is, current, StandardCopyOption.REPLACE_EXISTING);
+                }
+                for (final RemoteBlob blob : deltas) {
+                    final Path next = Files.createTempFile("ubicrypt", ".base");
+                    try (final FileChannel channel = FileChannel.open(current);
+                         final InputStream delta = open(blob);
+                         final OutputStream os = Files.newOutputStream(next)) {
+                        DeltaPatcher.apply(channel, delta, os);
+                    } catch (final Exception e) {
+                        next.toFile().delete();
+                        throw e;
+                    }
+                    Files.delete(current);
+                    current = next;
+                }
+                subscriber.onNext(Files.newInputStream(current, StandardOpenOption.DELETE_ON_CLOSE));
+                subscriber.onCompleted();
+            } catch (final Exception e) {
+                if (current != null) {
+                    current.toFile().delete();
+                }
+                subscriber.onError(e);
+            }
+        }).subscribeOn(Schedulers.io());
+    }
+}
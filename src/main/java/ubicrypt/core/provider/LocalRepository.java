@@ -31,7 +31,6 @@ import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.stream.Stream;
 
 import javax.annotation.Resource;
 import javax.inject.Inject;
@@ -80,7 +79,7 @@ public class LocalRepository implements IRepository {
         try {
             check(fp);
             final UbiFile rfile = fp.getFile();
-            final Optional<LocalFile> lfile = localConfig.getLocalFiles().stream().filter(lf -> lf.equals(rfile)).findFirst();
+            final Optional<LocalFile> lfile = localConfig.findLocalFile(rfile);
             //if path not set, take the getName()
             final Path path = rfile.getPath() != null ? rfile.getPath() : Paths.get(rfile.getName());
             if (!lfile.isPresent()) {
@@ -122,7 +121,7 @@ public class LocalRepository implements IRepository {
                 }
                 //if present
             } else {
-                if (rfile.getVclock().compare(lfile.get().getVclock()) == VClock.Comparison.newer) {
+                if (rfile.getVclock().compare(lfile.get().getVclock(), localConfig.getRetired()) == VClock.Comparison.newer) {
                     lfile.get().copyFrom(rfile);
                     if (!rfile.isDeleted() && !rfile.isRemoved()) {
                         log.info("update file:{} locally from repo:{}", rfile.getPath(), fp.getOrigin());
@@ -151,19 +150,16 @@ public class LocalRepository implements IRepository {
         }
     }
 
-    private Stream<LocalFile> getPathStream(final UbiFile file) {
-        return localConfig.getLocalFiles().stream().filter(file1 -> file1.equals(file));
-    }
 
     @Override
     public Observable<InputStream> get(final UbiFile file) {
         checkNotNull(file, "file must be not null");
         return Observable.create(subscriber -> {
             try {
-                subscriber.onNext(getPathStream(file)
+                subscriber.onNext(localConfig.findLocalFile(file)
                         .map(LocalFile::getPath)
                         .map(basePath::resolve)
-                        .map(Utils::readIs).findFirst().orElseThrow(() -> new NotFoundException(basePath.resolve(file.getPath()))));
+                        .map(Utils::readIs).orElseThrow(() -> new NotFoundException(basePath.resolve(file.getPath()))));
                 subscriber.onCompleted();
             } catch (final Exception e) {
                 subscriber.onError(e);
@@ -26,8 +26,12 @@ import ubicrypt.core.FileSynchronizer;
 import ubicrypt.core.InitFileSyncronizer;
 import ubicrypt.core.InitLocalFiles;
 import ubicrypt.core.ProgressFile;
+import ubicrypt.core.codec.CompressionStats;
+import ubicrypt.core.dto.LocalConfig;
+import ubicrypt.core.dto.RetiredDevices;
 import ubicrypt.core.dto.UbiFile;
 import ubicrypt.core.util.InProgressTracker;
+import ubicrypt.core.util.Pipeline;
 import ubicrypt.core.util.QueueLiner;
 
 @Configuration
@@ -89,5 +93,22 @@ public class RemoteCtxConf {
         return new QueueLiner<>(saveConfIntervalMs);
     }
 
+    @Bean
+    public CompressionStats compressionStats() {
+        return new CompressionStats();
+    }
+
+    @Bean
+    public Pipeline pipeline(@Value("${pipeline.enabled:true}") final boolean enabled,
+                             @Value("${pipeline.threads:4}") final int threads,
+                             @Value("${pipeline.depth:4}") final int depth) {
+        return new Pipeline(enabled, threads, depth);
+    }
+
+    @Bean
+    public RetiredDevices retiredDevices(final LocalConfig localConfig) {
+        return localConfig.getRetired();
+    }
+
 
 }
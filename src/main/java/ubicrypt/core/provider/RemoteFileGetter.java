@@ -16,7 +16,6 @@ package ubicrypt.core.provider;
 import java.io.InputStream;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiFunction;
-import java.util.function.Predicate;
 
 import rx.Observable;
 import rx.functions.Action0;
@@ -33,22 +32,25 @@ import static rx.Observable.create;
 
 public class RemoteFileGetter implements Func1<UbiFile, Observable<InputStream>>, Func2<UbiFile, BiFunction<RemoteFile, InputStream, InputStream>, Observable<InputStream>> {
     private final Observable.OnSubscribe<AcquirerReleaser> acquirer;
-    private final UbiProvider provider;
+    private final Func1<RemoteFile, Observable<InputStream>> fetcher;
 
     public RemoteFileGetter(Observable.OnSubscribe<AcquirerReleaser> acquirer, UbiProvider provider) {
-        checkNotNull(acquirer, "acquirer not null");
+        this(acquirer, rfile -> provider.get(rfile.getName()));
         checkNotNull(provider, "provider not null");
-        this.acquirer = acquirer;
-        this.provider = provider;
     }
 
-    private static Predicate<RemoteFile> filterRemote(final UbiFile file) {
-        return (rfile) -> rfile.equals(file);
+    /**
+     * @param fetcher retrieves the content of the remote file
+     */
+    public RemoteFileGetter(Observable.OnSubscribe<AcquirerReleaser> acquirer, Func1<RemoteFile, Observable<InputStream>> fetcher) {
+        checkNotNull(acquirer, "acquirer not null");
+        checkNotNull(fetcher, "fetcher not null");
+        this.acquirer = acquirer;
+        this.fetcher = fetcher;
     }
 
     private static Func1<? super RemoteConfig, RemoteFile> remoteFile(final UbiFile file) {
-        return remoteConfig -> remoteConfig.getRemoteFiles().stream()
-                .filter(filterRemote(file)).findFirst().orElseThrow(() -> new IllegalArgumentException("not present in remote file list"));
+        return remoteConfig -> remoteConfig.findRemoteFile(file).orElseThrow(() -> new IllegalArgumentException("not present in remote file list"));
     }
 
     @Override
@@ -63,7 +65,7 @@ public class RemoteFileGetter implements Func1<UbiFile, Observable<InputStream>>
                 .doOnNext(acquirerReleaser -> releaser.set(acquirerReleaser.getReleaser()))
                 .map(AcquirerReleaser::getRemoteConfig)
                 .map(remoteFile(file))
-                .flatMap(rf -> provider.get(rf.getName())
+                .flatMap(rf -> fetcher.call(rf)
                         .map(is -> streamTransformer.apply(rf, is)))
                 .doOnCompleted(releaser.get() != null ? releaser.get()::call : Actions.empty())
                 .doOnError(releaser.get() != null ? err -> releaser.get().call() : err -> {
@@ -13,21 +13,32 @@
  */
 package ubicrypt.core.provider;
 
+import com.google.common.base.Throwables;
+
+import org.apache.commons.io.input.TeeInputStream;
 import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.zip.Deflater;
-import java.util.zip.DeflaterInputStream;
-import java.util.zip.InflaterInputStream;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import javax.inject.Inject;
 
+import reactor.fn.tuple.Tuple;
+import reactor.fn.tuple.Tuple2;
 import rx.Observable;
 import rx.functions.Action0;
 import rx.functions.Actions;
@@ -39,19 +50,28 @@ import ubicrypt.core.MonitorInputStream;
 import ubicrypt.core.ProgressFile;
 import ubicrypt.core.RemoteIO;
 import ubicrypt.core.Utils;
+import ubicrypt.core.codec.Codec;
+import ubicrypt.core.codec.CompressibilityProbe;
+import ubicrypt.core.codec.CompressionStats;
 import ubicrypt.core.crypto.AESGCM;
-import ubicrypt.core.dto.Key;
+import ubicrypt.core.dto.Chunk;
+import ubicrypt.core.dto.RemoteBlob;
 import ubicrypt.core.dto.RemoteConfig;
 import ubicrypt.core.dto.RemoteFile;
+import ubicrypt.core.dto.RetiredDevices;
 import ubicrypt.core.dto.UbiFile;
 import ubicrypt.core.dto.VClock;
 import ubicrypt.core.provider.lock.AcquirerReleaser;
+import ubicrypt.core.util.BlockSignature;
+import ubicrypt.core.util.Pipeline;
 import ubicrypt.core.util.QueueLiner;
 
-import static java.util.zip.Deflater.BEST_COMPRESSION;
 import static org.slf4j.LoggerFactory.getLogger;
 import static rx.Observable.create;
 import static rx.Observable.just;
+import static ubicrypt.core.util.Pipeline.Step.compress;
+import static ubicrypt.core.util.Pipeline.Step.encrypt;
+import static ubicrypt.core.util.Pipeline.Step.read;
 
 public class RemoteRepository implements IRepository {
     private static final Logger log = getLogger(RemoteRepository.class);
@@ -65,27 +85,69 @@ public class RemoteRepository implements IRepository {
     private Subject<FileEvent, FileEvent> fileEvents = PublishSubject.create();
     @Resource
     private QueueLiner<Boolean> queueLiner;
+    @Resource
+    private CompressionStats compressionStats = new CompressionStats();
+    @Value("${compression.autoSkip:true}")
+    private boolean compressionAutoSkip = true;
+    @Resource
+    private Pipeline pipeline = new Pipeline();
+    @Resource
+    private RetiredDevices retiredDevices = new RetiredDevices();
+    @Inject
+    private int deviceId;
+    @Value("${vclock.prune.horizonDays:0}")
+    private long pruneHorizonDays = 0;
     private Func1<Observable<Boolean>, Observable<Boolean>> epilogued;
     private RemoteFileGetter fileGetter;
+    private final ChunkStore chunkStore;
+    @Value("${chunking.enabled:false}")
+    private boolean chunking = false;
+    @Value("${chunking.minFileSize:8388608}")
+    private long chunkingMinFileSize = 1 << 23;
+    private final DeltaStore deltaStore;
+    /**
+     * signatures replaced since the last config save, the saved config may still reference them
+     */
+    private final Queue<RemoteBlob> replacedSignatures = new ConcurrentLinkedQueue<>();
+    @Value("${delta.enabled:false}")
+    private boolean delta = false;
+    @Value("${delta.minFileSize:8388608}")
+    private long deltaMinFileSize = 1 << 23;
+    @Value("${delta.maxChain:8}")
+    private int deltaMaxChain = 8;
 
 
     public RemoteRepository(final Observable.OnSubscribe<AcquirerReleaser> acquirer, final UbiProvider provider, final RemoteIO<RemoteConfig> configIO) {
         this.acquirer = acquirer;
         this.provider = provider;
         this.configIO = configIO;
-        fileGetter = new RemoteFileGetter(acquirer, provider);
+        this.chunkStore = new ChunkStore(provider);
+        this.deltaStore = new DeltaStore(provider);
+        fileGetter = new RemoteFileGetter(acquirer, this::fetch);
         this.epilogued = (booleanObservable -> booleanObservable);
     }
 
 
     @PostConstruct
     public void init() {
-        this.epilogued = queueLiner.createEpiloguer(() -> saveConf(releaserRef.get().getRemoteConfig()));
+        this.epilogued = queueLiner.createEpiloguer(() -> saveConfAndRelease(releaserRef.get().getRemoteConfig()));
     }
 
     @Override
     public Observable<InputStream> get(final UbiFile file) {
-        return fileGetter.call(file, (rfile, is) -> monitor(new FileProvenience(file, this), new InflaterInputStream(AESGCM.decryptIs(rfile.getKey().getBytes(), is))));
+        return fileGetter.call(file, (rfile, is) -> monitor(new FileProvenience(file, this), is));
+    }
+
+    private Observable<InputStream> fetch(final RemoteFile rfile) {
+        if (rfile.isChunked()) {
+            return just(chunkStore.get(rfile.getChunks()));
+        }
+        final List<RemoteBlob> deltas = new ArrayList<>(rfile.getDeltas());
+        final Observable<InputStream> base = provider.get(rfile.getName()).map(is -> Codec.of(rfile.getCodec()).decode(AESGCM.decryptIs(rfile.getKey(), is)));
+        if (deltas.isEmpty()) {
+            return base;
+        }
+        return base.flatMap(is -> deltaStore.restore(is, deltas));
     }
 
     private Observable<Boolean> saveConf(final RemoteConfig remoteConfig) {
@@ -98,6 +160,31 @@ public class RemoteRepository implements IRepository {
     }
 
 
+    /**
+     * the replaced signatures are deleted only once a config not referencing them is saved
+     */
+    private Observable<Boolean> saveConfAndRelease(final RemoteConfig remoteConfig) {
+        final List<RemoteBlob> replaced = new ArrayList<>();
+        for (RemoteBlob blob; (blob = replacedSignatures.poll()) != null; ) {
+            replaced.add(blob);
+        }
+        return saveConf(remoteConfig)
+                .doOnError(err -> replacedSignatures.addAll(replaced))
+                .flatMap(saved -> {
+                    if (!saved) {
+                        replacedSignatures.addAll(replaced);
+                        return just(false);
+                    }
+                    return deltaStore.release(replaced).map(res -> true);
+                });
+    }
+
+    private void replaced(final RemoteBlob signature) {
+        if (signature != null) {
+            replacedSignatures.add(signature);
+        }
+    }
+
     @Override
     public boolean isLocal() {
         return false;
@@ -116,55 +203,48 @@ public class RemoteRepository implements IRepository {
             releaserRef.set(releaser);
             final RemoteConfig remoteConfig = releaser.getRemoteConfig();
             UbiFile<UbiFile> file = fp.getFile();
-            Optional<RemoteFile> rfile = remoteConfig.getRemoteFiles().stream().filter(file1 -> file1.equals(file)).findFirst();
+            Optional<RemoteFile> rfile = remoteConfig.findRemoteFile(file);
             if (!rfile.isPresent()) {
                 if (!Utils.ignoredFiles.test(file)) {
                     return just(false);
                 }
                 //create new one remotely
                 RemoteFile rf = RemoteFile.createFrom(file);
-                final byte[] key = AESGCM.rndKey();
-                rf.setKey(new Key(key));
                 fileEventType.set(FileEvent.Type.created);
-                return fp.getOrigin().get(file)
-                        .flatMap(is ->
-                                provider.post(AESGCM.encryptIs(key, new DeflaterInputStream(monitor(fp, is), new Deflater(BEST_COMPRESSION))))
-                                        .map(name -> {
-                                            log.info("created file:{}, to provider:{}", rf.getPath(), provider);
-                                            //add name and add to config
-                                            rf.setRemoteName(name);
-                                            remoteConfig.getRemoteFiles().add(rf);
-                                            return true;
-                                        }))
+                return upload(fp, remoteConfig, rf)
+                        .filter(BooleanUtils::isTrue)
+                        .map(saved -> {
+                            log.info("created file:{}, to provider:{}", rf.getPath(), provider);
+                            //add to config
+                            remoteConfig.getRemoteFiles().add(rf);
+                            written(remoteConfig);
+                            return true;
+                        })
                         .defaultIfEmpty(false)
                         .filter(BooleanUtils::isTrue)
                         .doOnCompleted(fileEvents(fp, fileEventType.get()));
             }
             //update already present file
-            if (file.compare(rfile.get()) == VClock.Comparison.newer) {
+            if (file.compare(rfile.get(), retiredDevices) == VClock.Comparison.newer) {
                 //coming file is new version
                 log.debug("file:{} newer than:{} on provider:{}", file.getPath(), rfile.get(), provider);
                 rfile.get().copyFrom(file);
                 if (rfile.get().isDeleted() || rfile.get().isRemoved()) {
                     //delete remotely
                     fileEventType.set(rfile.get().isDeleted() ? FileEvent.Type.deleted : FileEvent.Type.removed);
-                    return provider.delete(rfile.get().getName())
+                    return delete(remoteConfig, rfile.get())
                             .doOnNext(saved -> log.info("deleted:{} file:{}, to provider:{}", saved, rfile.get().getPath(), provider))
                             .filter(BooleanUtils::isTrue)
+                            .doOnNext(saved -> written(remoteConfig))
                             .doOnCompleted(fileEvents(fp, fileEventType.get()));
                 }
                 //update remotely
                 fileEventType.set(FileEvent.Type.updated);
-                return fp.getOrigin().get(file)
-                        .flatMap(is -> {
-                            //renew encryption key
-                            rfile.get().setKey(new Key(AESGCM.rndKey(), UbiFile.KeyType.aes));
-                            return provider.put(rfile.get().getName(),
-                                    AESGCM.encryptIs(rfile.get().getKey().getBytes(), new DeflaterInputStream(monitor(fp, is), new Deflater(BEST_COMPRESSION))))
-                                    .doOnNext(saved -> log.info("updated:{} file:{}, to provider:{}", saved, rfile.get().getPath(), provider))
-                                    .filter(BooleanUtils::isTrue)
-                                    .doOnCompleted(fileEvents(fp, fileEventType.get()));
-                        });
+                return upload(fp, remoteConfig, rfile.get())
+                        .doOnNext(saved -> log.info("updated:{} file:{}, to provider:{}", saved, rfile.get().getPath(), provider))
+                        .filter(BooleanUtils::isTrue)
+                        .doOnNext(saved -> written(remoteConfig))
+                        .doOnCompleted(fileEvents(fp, fileEventType.get()));
             }
             log.debug("no update file:{} for provider:{}", file.getPath(), provider);
             return Observable.just(false);
@@ -178,6 +258,218 @@ public class RemoteRepository implements IRepository {
                 .doOnCompleted(releaserRef.get() != null ? releaserRef.get().getReleaser()::call : Actions.empty());
     }
 
+    /**
+     * this device is still active, its clock entries are not to be retired.
+     * Recorded only with pruning enabled, earlier versions can't read it.
+     */
+    private void written(final RemoteConfig remoteConfig) {
+        if (pruneHorizonDays > 0) {
+            remoteConfig.getDevices().put(retiredDevices.liveId(deviceId), Instant.now());
+        }
+    }
+
+    private Codec codec() {
+        return Codec.of(provider.getCodec());
+    }
+
+    /**
+     * the legacy deflate is not recorded, so earlier versions can still read the config
+     */
+    private static Codec recorded(final Codec codec) {
+        return codec == Codec.deflateBest ? null : codec;
+    }
+
+    /**
+     * Compresses with the provider codec, unless the head of the content looks incompressible.
+     * Skipping records {@link Codec#none}, so it applies only to the providers with a chosen codec.
+     */
+    private Tuple2<Codec, InputStream> encode(final InputStream is) {
+        final Codec codec = codec();
+        if (!compressionAutoSkip || provider.getCodec() == null || codec == Codec.none) {
+            return Tuple.of(codec, compressionStats.encode(codec, is, false));
+        }
+        try {
+            final CompressibilityProbe probe = CompressibilityProbe.probe(is);
+            if (probe.isIncompressible()) {
+                return Tuple.of(Codec.none, compressionStats.encode(Codec.none, probe.getStream(), true));
+            }
+            return Tuple.of(codec, compressionStats.encode(codec, probe.getStream(), false));
+        } catch (final IOException e) {
+            Throwables.propagate(e);
+        }
+        return null;
+    }
+
+    private Tuple2<Codec, InputStream> staged(final InputStream is) {
+        final Tuple2<Codec, InputStream> encoded = encode(is);
+        return encoded.getT1() == Codec.none ? encoded : Tuple.of(encoded.getT1(), pipeline.stage(compress, encoded.getT2()));
+    }
+
+    private boolean chunked(final UbiFile file) {
+        return chunking && file.getSize() >= chunkingMinFileSize;
+    }
+
+    private boolean delta(final UbiFile file) {
+        return delta && !chunked(file) && file.getSize() >= deltaMinFileSize;
+    }
+
+    private static List<RemoteBlob> blobs(final List<RemoteBlob> deltas, final RemoteBlob signature) {
+        final List<RemoteBlob> ret = new ArrayList<>(deltas);
+        if (signature != null) {
+            ret.add(signature);
+        }
+        return ret;
+    }
+
+    /**
+     * Stores the content either as single encrypted object, as delta of the previous version
+     * or as deduplicated chunks. Storage replaced by the new content is released.
+     */
+    private Observable<Boolean> upload(final FileProvenience fp, final RemoteConfig remoteConfig, final RemoteFile rfile) {
+        final Observable<InputStream> plain = fp.getOrigin().get(fp.getFile());
+        if (chunked(rfile) || delta(rfile) || !fp.getShared().isPresent()) {
+            return plain.flatMap(is -> upload(fp, remoteConfig, rfile, is));
+        }
+        //same ciphertext and key of the other providers
+        final SharedUpload shared = fp.getShared().get();
+        rfile.setKey(shared.getKey());
+        return shared.ciphertext(codec(), plain, is -> pipeline.stage(read, monitor(fp, is)), this::staged)
+                .flatMap(encrypted -> {
+                    rfile.setCodec(recorded(encrypted.getT1()));
+                    return store(rfile, pipeline.stage(encrypt, encrypted.getT2()));
+                })
+                .flatMap(saved -> released(remoteConfig, rfile, saved, null));
+    }
+
+    private Observable<Boolean> upload(final FileProvenience fp, final RemoteConfig remoteConfig, final RemoteFile rfile, final InputStream is) {
+        final List<Chunk> previousChunks = rfile.getChunks();
+        final List<RemoteBlob> previousDeltas = rfile.getDeltas();
+        final RemoteBlob previousSignature = rfile.getSignature();
+        if (chunked(rfile)) {
+            final String previousName = rfile.getRemoteName();
+            return chunkStore.put(remoteConfig, monitor(fp, is))
+                    .flatMap(chunks -> {
+                        rfile.setChunks(chunks);
+                        rfile.setRemoteName(null);
+                        rfile.setDeltas(Collections.emptyList());
+                        rfile.setSignature(null);
+                        replaced(previousSignature);
+                        return Observable.concat(chunkStore.release(remoteConfig, previousChunks),
+                                deltaStore.release(previousDeltas),
+                                previousName != null ? provider.delete(previousName).onErrorReturn(err -> false) : Observable.empty())
+                                .lastOrDefault(true)
+                                .map(res -> true);
+                    });
+        }
+        if (delta(rfile) && previousSignature != null && rfile.getRemoteName() != null
+                && previousChunks.isEmpty() && previousDeltas.size() < deltaMaxChain) {
+            //upload only the changes against the latest version
+            return deltaStore.signature(previousSignature)
+                    .map(Optional::of)
+                    .onErrorReturn(err -> {
+                        log.warn("signature not readable, full upload of file:{}, provider:{}", rfile.getPath(), provider, err);
+                        return Optional.empty();
+                    })
+                    .flatMap(base -> base.isPresent()
+                            ? uploadDelta(fp, rfile, base.get(), is)
+                            : uploadFull(fp, remoteConfig, rfile, is));
+        }
+        return uploadFull(fp, remoteConfig, rfile, is);
+    }
+
+    private Observable<Boolean> uploadDelta(final FileProvenience fp, final RemoteFile rfile, final BlockSignature base, final InputStream is) {
+        final RemoteBlob previousSignature = rfile.getSignature();
+        final BlockSignature.Builder builder = new BlockSignature.Builder(base.getBlockSize());
+        return deltaStore.putDelta(base, new TeeInputStream(monitor(fp, is), builder))
+                .flatMap(blob -> {
+                    log.debug("delta:{} of file:{}, chain:{}", blob, rfile.getPath(), rfile.getDeltas().size() + 1);
+                    rfile.addDelta(blob);
+                    return deltaStore.putSignature(builder.build());
+                })
+                .map(signature -> {
+                    rfile.setSignature(signature);
+                    replaced(previousSignature);
+                    return true;
+                });
+    }
+
+    private Observable<Boolean> uploadFull(final FileProvenience fp, final RemoteConfig remoteConfig, final RemoteFile rfile, final InputStream is) {
+        //renew encryption key
+        rfile.setKey(AESGCM.newKey());
+        final BlockSignature.Builder builder = delta(rfile) ? new BlockSignature.Builder() : null;
+        final InputStream source = pipeline.stage(read, builder != null ? new TeeInputStream(monitor(fp, is), builder) : monitor(fp, is));
+        final Tuple2<Codec, InputStream> encoded = staged(source);
+        rfile.setCodec(recorded(encoded.getT1()));
+        return store(rfile, pipeline.stage(encrypt, AESGCM.encryptIs(rfile.getKey(), encoded.getT2())))
+                .flatMap(saved -> released(remoteConfig, rfile, saved, builder));
+    }
+
+    /**
+     * the stream is closed if the provider fails or the upload is dropped, a stage not read holds no thread
+     */
+    private Observable<Boolean> store(final RemoteFile rfile, final InputStream encrypted) {
+        return (rfile.getRemoteName() != null
+                ? provider.put(rfile.getRemoteName(), encrypted)
+                : provider.post(encrypted).map(name -> {
+            rfile.setRemoteName(name);
+            return true;
+        }))
+                .doOnError(err -> Utils.close(encrypted))
+                .doOnUnsubscribe(() -> Utils.close(encrypted));
+    }
+
+    /**
+     * Once stored as new base, releases chunks and deltas of the previous version.
+     *
+     * @param builder signature of the new content, null when deltas are not enabled for the file
+     */
+    private Observable<Boolean> released(final RemoteConfig remoteConfig, final RemoteFile rfile, final boolean saved, final BlockSignature.Builder builder) {
+        if (!saved) {
+            return just(false);
+        }
+        final List<Chunk> previousChunks = rfile.getChunks();
+        final RemoteBlob previousSignature = rfile.getSignature();
+        final List<RemoteBlob> obsolete = new ArrayList<>(rfile.getDeltas());
+        rfile.setChunks(Collections.emptyList());
+        rfile.setDeltas(Collections.emptyList());
+        final Observable<Boolean> signature;
+        if (builder != null) {
+            signature = deltaStore.putSignature(builder.build())
+                    .map(blob -> {
+                        rfile.setSignature(blob);
+                        return true;
+                    })
+                    .onErrorReturn(err -> {
+                        log.warn("signature not stored, file:{}, provider:{}", rfile.getPath(), provider, err);
+                        rfile.setSignature(null);
+                        return true;
+                    });
+        } else {
+            signature = just(true);
+            rfile.setSignature(null);
+        }
+        replaced(previousSignature);
+        return Observable.concat(signature, chunkStore.release(remoteConfig, previousChunks), deltaStore.release(obsolete))
+                .lastOrDefault(true)
+                .map(res -> true);
+    }
+
+    private Observable<Boolean> delete(final RemoteConfig remoteConfig, final RemoteFile rfile) {
+        if (rfile.isChunked()) {
+            final List<Chunk> chunks = rfile.getChunks();
+            rfile.setChunks(Collections.emptyList());
+            return chunkStore.release(remoteConfig, chunks);
+        }
+        final List<RemoteBlob> blobs = blobs(rfile.getDeltas(), rfile.getSignature());
+        if (blobs.isEmpty()) {
+            return provider.delete(rfile.getName());
+        }
+        rfile.setDeltas(Collections.emptyList());
+        rfile.setSignature(null);
+        return provider.delete(rfile.getName())
+                .flatMap(deleted -> deltaStore.release(blobs).map(res -> deleted));
+    }
+
     private Action0 fileEvents(final FileProvenience fp, final FileEvent.Type fileEventType) {
         return () -> fileEvents.onNext(new FileEvent(fp.getFile(), fileEventType, FileEvent.Location.remote));
     }
@@ -228,4 +520,36 @@ public class RemoteRepository implements IRepository {
     public void setQueueLiner(final QueueLiner<Boolean> queueLiner) {
         this.queueLiner = queueLiner;
     }
+
+    public void setCompressionAutoSkip(final boolean compressionAutoSkip) {
+        this.compressionAutoSkip = compressionAutoSkip;
+    }
+
+    public void setCompressionStats(final CompressionStats compressionStats) {
+        this.compressionStats = compressionStats;
+    }
+
+    public void setPipeline(final Pipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    public void setChunking(final boolean chunking) {
+        this.chunking = chunking;
+    }
+
+    public void setChunkingMinFileSize(final long chunkingMinFileSize) {
+        this.chunkingMinFileSize = chunkingMinFileSize;
+    }
+
+    public void setDelta(final boolean delta) {
+        this.delta = delta;
+    }
+
+    public void setDeltaMinFileSize(final long deltaMinFileSize) {
+        this.deltaMinFileSize = deltaMinFileSize;
+    }
+
+    public void setDeltaMaxChain(final int deltaMaxChain) {
+        this.deltaMaxChain = deltaMaxChain;
+    }
 }
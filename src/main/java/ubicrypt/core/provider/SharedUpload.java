@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.provider;
+
+import org.apache.commons.io.input.TeeInputStream;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+
+import reactor.fn.tuple.Tuple;
+import reactor.fn.tuple.Tuple2;
+import rx.Observable;
+import rx.functions.Func1;
+import ubicrypt.core.codec.Codec;
+import ubicrypt.core.crypto.AESGCM;
+import ubicrypt.core.dto.Key;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Content of a file compressed and encrypted once for all the providers it's uploaded to.
+ * The first upload with a codec encrypts the origin while spooling the ciphertext to a temporary file,
+ * the following ones with the same codec read the spool. An interrupted upload leaves the next one to encrypt again.
+ * <p>
+ * The ciphertext is spooled rather than teed live to the providers: all the remote saves go through the one
+ * {@link ubicrypt.core.util.QueueLiner}, one at a time, so a provider reading a live tee would wait on a provider
+ * still queued behind it. The cost is a write of the ciphertext to the temporary folder and a read of it for every
+ * other provider, against a read of the origin, a compression and an encryption each. The spool holds
+ * ciphertext only and is deleted on {@link #close()}.
+ */
+public class SharedUpload implements AutoCloseable {
+    private static final Logger log = getLogger(SharedUpload.class);
+    private final Key key = AESGCM.newKey();
+    private final Map<Codec, Path> spools = new EnumMap<>(Codec.class);
+    private final Map<Codec, Path> completed = new EnumMap<>(Codec.class);
+    private Boolean incompressible;
+    private boolean closed = false;
+
+    public Key getKey() {
+        return key;
+    }
+
+    /**
+     * @param codec   compression requested by the provider
+     * @param plain   content of the file, subscribed only when the spool is not available
+     * @param monitor applied to the stream read from the origin or from the spool
+     * @param encoder compresses the monitored origin, it may fall back to {@link Codec#none}
+     * @return the codec actually applied and the ciphertext encrypted with {@link #getKey()}
+     */
+    public synchronized Observable<Tuple2<Codec, InputStream>> ciphertext(final Codec codec, final Observable<InputStream> plain,
+                                                                          final Func1<InputStream, InputStream> monitor,
+                                                                          final Func1<InputStream, Tuple2<Codec, InputStream>> encoder) {
+        final Codec effective = Boolean.TRUE.equals(incompressible) ? Codec.none : codec;
+        final Path spool = completed.get(effective);
+        if (spool != null) {
+            try {
+                log.debug("read spool:{}, codec:{}", spool, effective);
+                return Observable.just(Tuple.of(effective, monitor.call(Files.newInputStream(spool))));
+            } catch (final IOException e) {
+                log.warn("spool:{} not readable", spool, e);
+            }
+        }
+        return plain.map(is -> {
+            final Tuple2<Codec, InputStream> encoded = encoder.call(monitor.call(is));
+            return Tuple.of(encoded.getT1(), spool(codec, encoded.getT1(), AESGCM.encryptIs(key, encoded.getT2())));
+        });
+    }
+
+    private synchronized InputStream spool(final Codec requested, final Codec codec, final InputStream encrypted) {
+        if (codec != requested) {
+            incompressible = true;
+        } else if (codec != Codec.none) {
+            incompressible = false;
+        }
+        if (closed) {
+            return encrypted;
+        }
+        try {
+            delete(codec);
+            final Path path = Files.createTempFile("ubicrypt", ".spool");
+            spools.put(codec, path);
+            return new TeeInputStream(encrypted, Files.newOutputStream(path), true) {
+                @Override
+                protected void afterRead(final int n) {
+                    if (n == -1) {
+                        completed(codec, path);
+                    }
+                }
+            };
+        } catch (final IOException e) {
+            log.warn("spool not created", e);
+            return encrypted;
+        }
+    }
+
+    private synchronized void completed(final Codec codec, final Path path) {
+        if (path.equals(spools.get(codec))) {
+            completed.put(codec, path);
+        }
+    }
+
+    private void delete(final Codec codec) {
+        completed.remove(codec);
+        final Path spool = spools.remove(codec);
+        if (spool != null) {
+            spool.toFile().delete();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (final Codec codec : Codec.values()) {
+            delete(codec);
+        }
+    }
+}
@@ -22,6 +22,7 @@ import java.io.InputStream;
 import java.util.UUID;
 
 import rx.Observable;
+import ubicrypt.core.codec.Codec;
 import ubicrypt.core.dto.Key;
 import ubicrypt.core.dto.RemoteFile;
 import ubicrypt.core.dto.UbiFile;
@@ -41,6 +42,8 @@ public abstract class UbiProvider {
         }});
     }};
 
+    private Codec codec;
+
     public abstract Observable<String> post(InputStream is);
 
     public abstract Observable<Boolean> delete(final String pid);
@@ -72,6 +75,18 @@ public abstract class UbiProvider {
         this.lockFile = lockFile;
     }
 
+    /**
+     * compression of the files uploaded to this provider, chosen when adding it.
+     * Null for the legacy deflate, the only one readable by earlier versions.
+     */
+    public Codec getCodec() {
+        return codec;
+    }
+
+    public void setCodec(final Codec codec) {
+        this.codec = codec;
+    }
+
     @Override
     public boolean equals(final Object o) {
         if (this == o) return true;
@@ -0,0 +1,201 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.util;
+
+import com.google.common.base.Throwables;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Weak rolling and strong checksums of the fixed-size blocks of a file, rsync style.
+ */
+public class BlockSignature {
+    public static final int defaultBlockSize = 1 << 16;
+    private static final int strongLength = 16;
+    private final int blockSize;
+    private final int[] weak;
+    private final byte[] strong;
+    private Map<Integer, int[]> index;
+
+    BlockSignature(final int blockSize, final int[] weak, final byte[] strong) {
+        this.blockSize = blockSize;
+        this.weak = weak;
+        this.strong = strong;
+    }
+
+    /**
+     * rolling checksum of rsync, high 16 bits are the weighted sum and low 16 bits the plain sum
+     */
+    static int weak(final byte[] buf, final int off, final int len) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < len; i++) {
+            final int x = buf[off + i] & 0xff;
+            a += x;
+            b += (len - i) * x;
+        }
+        return weak(a, b);
+    }
+
+    static int weak(final int a, final int b) {
+        return (b << 16) | (a & 0xffff);
+    }
+
+    static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (final Exception e) {
+            Throwables.propagate(e);
+        }
+        return null;
+    }
+
+    public static BlockSignature read(final InputStream is) throws IOException {
+        final DataInputStream dis = new DataInputStream(is);
+        final int blockSize = dis.readInt();
+        final int count = dis.readInt();
+        final int[] weak = new int[count];
+        final byte[] strong = new byte[count * strongLength];
+        for (int i = 0; i < count; i++) {
+            weak[i] = dis.readInt();
+            dis.readFully(strong, i * strongLength, strongLength);
+        }
+        return new BlockSignature(blockSize, weak, strong);
+    }
+
+    public void write(final OutputStream os) throws IOException {
+        final DataOutputStream dos = new DataOutputStream(os);
+        dos.writeInt(blockSize);
+        dos.writeInt(weak.length);
+        for (int i = 0; i < weak.length; i++) {
+            dos.writeInt(weak[i]);
+            dos.write(strong, i * strongLength, strongLength);
+        }
+        dos.flush();
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getBlocks() {
+        return weak.length;
+    }
+
+    /**
+     * @return index of the block with the given content, -1 if not present
+     */
+    int find(final int weakSum, final byte[] buf, final int off, final MessageDigest md5) {
+        if (index == null) {
+            index = new HashMap<>(weak.length * 2);
+            for (int i = 0; i < weak.length; i++) {
+                final int[] prev = index.get(weak[i]);
+                final int[] blocks = prev == null ? new int[1] : Arrays.copyOf(prev, prev.length + 1);
+                blocks[blocks.length - 1] = i;
+                index.put(weak[i], blocks);
+            }
+        }
+        final int[] candidates = index.get(weakSum);
+        if (candidates == null) {
+            return -1;
+        }
+        md5.reset();
+        md5.update(buf, off, blockSize);
+        final byte[] digest = md5.digest();
+        for (final int block : candidates) {
+            if (equals(digest, block)) {
+                return block;
+            }
+        }
+        return -1;
+    }
+
+    private boolean equals(final byte[] digest, final int block) {
+        for (int i = 0; i < strongLength; i++) {
+            if (digest[i] != strong[block * strongLength + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Accumulates the signature of the bytes written, only complete blocks are indexed.
+     */
+    public static class Builder extends OutputStream {
+        private final int blockSize;
+        private final byte[] block;
+        private final MessageDigest md5 = md5();
+        private int pos = 0;
+        private int[] weak = new int[16];
+        private byte[] strong = new byte[16 * strongLength];
+        private int count = 0;
+
+        public Builder() {
+            this(defaultBlockSize);
+        }
+
+        public Builder(final int blockSize) {
+            checkArgument(blockSize > 0, "blockSize must be positive");
+            this.blockSize = blockSize;
+            this.block = new byte[blockSize];
+        }
+
+        @Override
+        public void write(final int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] buf, int off, int len) {
+            while (len > 0) {
+                final int n = Math.min(len, blockSize - pos);
+                System.arraycopy(buf, off, block, pos, n);
+                pos += n;
+                off += n;
+                len -= n;
+                if (pos == blockSize) {
+                    addBlock();
+                    pos = 0;
+                }
+            }
+        }
+
+        private void addBlock() {
+            if (count == weak.length) {
+                weak = Arrays.copyOf(weak, count * 2);
+                strong = Arrays.copyOf(strong, count * 2 * strongLength);
+            }
+            weak[count] = weak(block, 0, blockSize);
+            md5.reset();
+            md5.update(block, 0, blockSize);
+            System.arraycopy(md5.digest(), 0, strong, count * strongLength, strongLength);
+            count++;
+        }
+
+        public BlockSignature build() {
+            return new BlockSignature(blockSize, Arrays.copyOf(weak, count), Arrays.copyOf(strong, count * strongLength));
+        }
+    }
+}
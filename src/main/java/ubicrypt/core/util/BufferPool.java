@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recycles heap and direct buffers of the same size, keeping at most a bounded number of idle ones.
+ */
+public class BufferPool {
+    public static final int defaultBufferSize = 1 << 16;
+    private static final BufferPool shared = new BufferPool(defaultBufferSize, 256);
+    private final int bufferSize;
+    private final BlockingQueue<byte[]> idle;
+    private final BlockingQueue<ByteBuffer> idleDirect;
+    private final AtomicLong allocated = new AtomicLong();
+
+    public BufferPool(final int bufferSize, final int maxIdle) {
+        this.bufferSize = bufferSize;
+        this.idle = new ArrayBlockingQueue<>(maxIdle);
+        this.idleDirect = new ArrayBlockingQueue<>(maxIdle);
+    }
+
+    /**
+     * @return pool of {@link #defaultBufferSize} buffers
+     */
+    public static BufferPool shared() {
+        return shared;
+    }
+
+    public byte[] acquire() {
+        final byte[] buf = idle.poll();
+        if (buf != null) {
+            return buf;
+        }
+        allocated.incrementAndGet();
+        return new byte[bufferSize];
+    }
+
+    /**
+     * The buffer must not be used afterwards.
+     */
+    public void release(final byte[] buf) {
+        if (buf != null && buf.length == bufferSize) {
+            idle.offer(buf);
+        }
+    }
+
+    /**
+     * @return a cleared direct buffer
+     */
+    public ByteBuffer acquireDirect() {
+        final ByteBuffer buf = idleDirect.poll();
+        if (buf != null) {
+            buf.clear();
+            return buf;
+        }
+        allocated.incrementAndGet();
+        return ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    public void release(final ByteBuffer buf) {
+        if (buf != null && buf.isDirect() && buf.capacity() == bufferSize) {
+            idleDirect.offer(buf);
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * buffers allocated since creation, not served from the pool
+     */
+    public long getAllocated() {
+        return allocated.get();
+    }
+
+    public int getIdle() {
+        return idle.size() + idleDirect.size();
+    }
+}
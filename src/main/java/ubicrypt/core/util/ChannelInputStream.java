@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a file channel through a pooled direct buffer. Only the end of the channel ends the stream,
+ * the channel is closed and the buffer returned as soon as the end is reached or the stream is closed.
+ */
+public class ChannelInputStream extends InputStream {
+    private final FileChannel channel;
+    private final BufferPool pool;
+    private ByteBuffer buffer;
+    private boolean eof = false;
+
+    public ChannelInputStream(final FileChannel channel, final BufferPool pool) {
+        this.channel = channel;
+        this.pool = pool;
+        this.buffer = pool.acquireDirect();
+        buffer.flip();
+    }
+
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        if (buffer == null) {
+            throw new IOException("stream closed");
+        }
+        while (!buffer.hasRemaining()) {
+            buffer.clear();
+            final int read = channel.read(buffer);
+            buffer.flip();
+            if (read < 0) {
+                eof = true;
+                close();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return buffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        final int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return buffer != null ? buffer.remaining() : 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+        }
+        channel.close();
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.util;
+
+import com.google.common.base.Throwables;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Splits a stream in content-defined chunks by a rolling gear hash.
+ * Boundaries depend only on the surrounding bytes, so an insertion shifts at most the chunks around it.
+ */
+public class ContentChunker implements Iterator<byte[]> {
+    private static final long[] gear = new long[256];
+
+    static {
+        //fixed seed, boundaries must be the same on every device
+        final Random rnd = new Random(0x75626963L);
+        for (int i = 0; i < gear.length; i++) {
+            gear[i] = rnd.nextLong();
+        }
+    }
+
+    private final InputStream is;
+    private final int minSize;
+    private final int maxSize;
+    private final long mask;
+    private final byte[] buf = new byte[1 << 16];
+    private final byte[] chunk;
+    private int pos = 0;
+    private int limit = 0;
+    private boolean eof = false;
+    private byte[] next;
+
+    public ContentChunker(final InputStream is) {
+        this(is, 1 << 18, 1 << 20, 1 << 22);
+    }
+
+    /**
+     * @param avgSize expected chunk size, rounded down to a power of 2
+     */
+    public ContentChunker(final InputStream is, final int minSize, final int avgSize, final int maxSize) {
+        checkNotNull(is, "input stream must not be null");
+        checkArgument(minSize > 0 && minSize <= avgSize && avgSize <= maxSize, "must be 0 < minSize <= avgSize <= maxSize");
+        this.is = is;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        //highest bits of the gear hash cover the widest window of bytes
+        this.mask = (long) (Integer.highestOneBit(avgSize) - 1) << (64 - Integer.numberOfTrailingZeros(Integer.highestOneBit(avgSize)));
+        this.chunk = new byte[maxSize];
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !eof) {
+            next = readChunk();
+        }
+        return next != null;
+    }
+
+    @Override
+    public byte[] next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final byte[] ret = next;
+        next = null;
+        return ret;
+    }
+
+    private byte[] readChunk() {
+        try {
+            int len = 0;
+            long hash = 0;
+            while (len < maxSize) {
+                if (pos == limit) {
+                    limit = is.read(buf);
+                    pos = 0;
+                    if (limit == -1) {
+                        limit = 0;
+                        eof = true;
+                        is.close();
+                        break;
+                    }
+                }
+                final byte b = buf[pos++];
+                chunk[len++] = b;
+                hash = (hash << 1) + gear[b & 0xff];
+                if (len >= minSize && (hash & mask) == 0) {
+                    break;
+                }
+            }
+            return len == 0 ? null : Arrays.copyOf(chunk, len);
+        } catch (final IOException e) {
+            Throwables.propagate(e);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+
+/**
+ * Encodes a stream as copies of the blocks of a {@link BlockSignature} and literal bytes, rsync style.
+ * The delta is: block size, a sequence of 'C' (first block, count), 'L' (length, bytes) and a final 'E'.
+ */
+public class DeltaEncoder {
+    static final byte COPY = 'C';
+    static final byte LITERAL = 'L';
+    static final byte END = 'E';
+    private static final int maxLiteral = 1 << 20;
+    private final BlockSignature base;
+    private final DataOutputStream out;
+    private final MessageDigest md5 = BlockSignature.md5();
+    private final ByteArrayOutputStream literal = new ByteArrayOutputStream();
+    private int copyStart = -1;
+    private int copyCount = 0;
+    private long literalBytes = 0;
+
+    private DeltaEncoder(final BlockSignature base, final OutputStream out) {
+        this.base = base;
+        this.out = new DataOutputStream(out);
+    }
+
+    /**
+     * @return the count of literal bytes of the delta
+     */
+    public static long encode(final BlockSignature base, final InputStream is, final OutputStream out) throws IOException {
+        final DeltaEncoder encoder = new DeltaEncoder(base, out);
+        encoder.encode(is);
+        return encoder.literalBytes;
+    }
+
+    private void encode(final InputStream is) throws IOException {
+        final int bs = base.getBlockSize();
+        final byte[] buf = new byte[Math.max(bs * 4, 1 << 16)];
+        int start = 0;
+        int end = 0;
+        int a = 0;
+        int b = 0;
+        boolean rolling = false;
+        boolean eof = false;
+        out.writeInt(bs);
+        while (true) {
+            if (start + bs >= end && !eof) {
+                //compact the window to the head of the buffer and refill, one byte beyond the window is needed to roll
+                addLiteral(buf, 0, start);
+                System.arraycopy(buf, start, buf, 0, end - start);
+                end -= start;
+                start = 0;
+                while (end < buf.length) {
+                    final int read = is.read(buf, end, buf.length - end);
+                    if (read < 0) {
+                        eof = true;
+                        break;
+                    }
+                    end += read;
+                }
+            }
+            if (start + bs > end) {
+                addLiteral(buf, 0, end);
+                break;
+            }
+            if (!rolling) {
+                a = 0;
+                b = 0;
+                for (int i = 0; i < bs; i++) {
+                    final int x = buf[start + i] & 0xff;
+                    a += x;
+                    b += (bs - i) * x;
+                }
+                rolling = true;
+            }
+            final int block = base.getBlocks() > 0 ? base.find(BlockSignature.weak(a, b), buf, start, md5) : -1;
+            if (block >= 0) {
+                addLiteral(buf, 0, start);
+                System.arraycopy(buf, start + bs, buf, 0, end - start - bs);
+                end -= start + bs;
+                start = 0;
+                addCopy(block);
+                rolling = false;
+                continue;
+            }
+            if (start + bs == end) {
+                addLiteral(buf, 0, end);
+                break;
+            }
+            final int first = buf[start] & 0xff;
+            final int next = buf[start + bs] & 0xff;
+            a += next - first;
+            b += a - bs * first;
+            start++;
+        }
+        flushLiteral();
+        flushCopy();
+        out.writeByte(END);
+        out.flush();
+    }
+
+    private void addLiteral(final byte[] buf, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+        flushCopy();
+        literal.write(buf, off, len);
+        if (literal.size() >= maxLiteral) {
+            flushLiteral();
+        }
+    }
+
+    private void addCopy(final int block) throws IOException {
+        flushLiteral();
+        if (copyCount > 0 && copyStart + copyCount == block) {
+            copyCount++;
+            return;
+        }
+        flushCopy();
+        copyStart = block;
+        copyCount = 1;
+    }
+
+    private void flushLiteral() throws IOException {
+        if (literal.size() == 0) {
+            return;
+        }
+        out.writeByte(LITERAL);
+        out.writeInt(literal.size());
+        literal.writeTo(out);
+        literalBytes += literal.size();
+        literal.reset();
+    }
+
+    private void flushCopy() throws IOException {
+        if (copyCount == 0) {
+            return;
+        }
+        out.writeByte(COPY);
+        out.writeInt(copyStart);
+        out.writeInt(copyCount);
+        copyCount = 0;
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.util;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Rebuilds the new content from the base file and a delta produced by {@link DeltaEncoder}.
+ */
+public class DeltaPatcher {
+
+    public static void apply(final FileChannel base, final InputStream delta, final OutputStream out) throws IOException {
+        final DataInputStream dis = new DataInputStream(delta);
+        final int bs = dis.readInt();
+        final byte[] buf = new byte[Math.max(bs, 1 << 16)];
+        while (true) {
+            final byte op = dis.readByte();
+            switch (op) {
+                case DeltaEncoder.COPY: {
+                    long position = (long) dis.readInt() * bs;
+                    long remaining = (long) dis.readInt() * bs;
+                    while (remaining > 0) {
+                        final ByteBuffer bb = ByteBuffer.wrap(buf, 0, (int) Math.min(buf.length, remaining));
+                        while (bb.hasRemaining()) {
+                            if (base.read(bb, position + bb.position()) < 0) {
+                                throw new IOException("base shorter than expected");
+                            }
+                        }
+                        out.write(buf, 0, bb.position());
+                        position += bb.position();
+                        remaining -= bb.position();
+                    }
+                    break;
+                }
+                case DeltaEncoder.LITERAL: {
+                    int remaining = dis.readInt();
+                    while (remaining > 0) {
+                        final int len = Math.min(buf.length, remaining);
+                        dis.readFully(buf, 0, len);
+                        out.write(buf, 0, len);
+                        remaining -= len;
+                    }
+                    break;
+                }
+                case DeltaEncoder.END:
+                    out.flush();
+                    return;
+                default:
+                    throw new IOException("corrupted delta, op:" + op);
+            }
+        }
+    }
+}
@@ -15,11 +15,13 @@ package ubicrypt.core.util;
 
 import java.util.stream.Collectors;
 
+import javax.annotation.Resource;
 import javax.inject.Inject;
 
 import rx.Observable;
 import rx.functions.Func1;
 import ubicrypt.core.dto.RemoteConfig;
+import ubicrypt.core.dto.RetiredDevices;
 import ubicrypt.core.dto.UbiFile;
 import ubicrypt.core.dto.VClock;
 import ubicrypt.core.provider.ProviderHook;
@@ -29,6 +31,8 @@ public class FileInSync implements Func1<UbiFile, Observable.OnSubscribe<Boolean
 
     @Inject
     ProviderLifeCycle providerLifeCycle;
+    @Resource
+    RetiredDevices retiredDevices = new RetiredDevices();
 
     public Observable.OnSubscribe<Boolean> call(UbiFile file) {
         return subscriber -> {
@@ -40,10 +44,8 @@ public class FileInSync implements Func1<UbiFile, Observable.OnSubscribe<Boolean
                     .map(releaser -> {
                         releaser.getReleaser().call();
                         RemoteConfig remoteConfig = releaser.getRemoteConfig();
-                        return remoteConfig.getRemoteFiles().contains(file) && remoteConfig.getRemoteFiles().stream()
-                                .filter(file::equals)
-                                .map(rfile -> rfile.compare(file) == VClock.Comparison.equal)
-                                .findFirst()
+                        return remoteConfig.findRemoteFile(file)
+                                .map(rfile -> rfile.compare(file, retiredDevices) == VClock.Comparison.equal)
                                 .orElse(false);
                     })
                     .defaultIfEmpty(false)
@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+
+/**
+ * K-way merge join of sources sorted by key.
+ * Every {@link #next()} returns the elements of all sources sharing the smallest pending key, in the order of the sources,
+ * reading only one element ahead per source.
+ */
+public class MergeJoin<T, K extends Comparable<? super K>> implements Iterator<List<T>> {
+    private final Function<T, K> key;
+    private final PriorityQueue<Cursor> heads;
+
+    /**
+     * @param sources ascending by key, each key at most once per source
+     */
+    public MergeJoin(final List<? extends Iterator<T>> sources, final Function<T, K> key) {
+        this.key = key;
+        this.heads = new PriorityQueue<>(Math.max(1, sources.size()),
+                Comparator.<Cursor, K>comparing(cursor -> cursor.key).thenComparingInt(cursor -> cursor.index));
+        for (int i = 0; i < sources.size(); i++) {
+            advance(new Cursor(sources.get(i), i));
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !heads.isEmpty();
+    }
+
+    @Override
+    public List<T> next() {
+        if (heads.isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        final List<T> group = new ArrayList<>(heads.size());
+        final K current = heads.peek().key;
+        while (!heads.isEmpty() && heads.peek().key.compareTo(current) == 0) {
+            final Cursor cursor = heads.poll();
+            group.add(cursor.head);
+            advance(cursor);
+        }
+        return group;
+    }
+
+    private void advance(final Cursor cursor) {
+        if (cursor.source.hasNext()) {
+            cursor.head = cursor.source.next();
+            cursor.key = key.apply(cursor.head);
+            heads.add(cursor);
+        }
+    }
+
+    private class Cursor {
+        private final Iterator<T> source;
+        private final int index;
+        private T head;
+        private K key;
+
+        private Cursor(final Iterator<T> source, final int index) {
+            this.source = source;
+            this.index = index;
+        }
+    }
+}
@@ -19,20 +19,17 @@ import org.springframework.context.EnvironmentAware;
 import org.springframework.core.env.Environment;
 
 import java.io.InputStream;
-import java.util.zip.Deflater;
-import java.util.zip.DeflaterInputStream;
-import java.util.zip.InflaterInputStream;
 
 import javax.inject.Inject;
 
 import rx.Observable;
+import ubicrypt.core.codec.Codec;
 import ubicrypt.core.crypto.AESGCM;
 import ubicrypt.core.crypto.IPGPService;
 import ubicrypt.core.dto.RemoteFile;
 import ubicrypt.core.provider.UbiProvider;
 
 import static com.google.common.base.Preconditions.checkNotNull;
-import static java.util.zip.Deflater.BEST_COMPRESSION;
 import static org.slf4j.LoggerFactory.getLogger;
 import static ubicrypt.core.Utils.marshallIs;
 import static ubicrypt.core.Utils.umarshall;
@@ -86,7 +83,7 @@ public class ObjectSerializer implements IObjectSerializer, EnvironmentAware {
         }
         switch (file.getKey().getType()) {
             case aes:
-                return AESGCM.encryptIs(file.getKey().getBytes(), new DeflaterInputStream(inputStream, new Deflater(BEST_COMPRESSION)));
+                return AESGCM.encryptIs(file.getKey(), Codec.of(file.getCodec()).encode(inputStream));
             default:
                 return pgpService.encrypt(inputStream);
         }
@@ -98,7 +95,7 @@ public class ObjectSerializer implements IObjectSerializer, EnvironmentAware {
         }
         switch (file.getKey().getType()) {
             case aes:
-                return new InflaterInputStream(AESGCM.decryptIs(file.getKey().getBytes(), inputStream));
+                return Codec.of(file.getCodec()).decode(AESGCM.decryptIs(file.getKey(), inputStream));
             default:
                 return pgpService.decrypt(inputStream);
         }
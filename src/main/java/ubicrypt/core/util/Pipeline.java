@@ -0,0 +1,362 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Runs the steps of an upload on separate bounded executors. Every stage pulls its upstream into
+ * a bounded queue of pooled buffers, so reading, compression, encryption and the network write overlap
+ * and a slow consumer holds back the stages before it.
+ */
+public class Pipeline {
+    private static final Logger log = getLogger(Pipeline.class);
+    private static final long stallMillis = TimeUnit.MINUTES.toMillis(10);
+    private final Map<Step, Stage> stages = new EnumMap<>(Step.class);
+    private final BufferPool buffers;
+    private final int depth;
+    private final boolean enabled;
+
+    public Pipeline() {
+        this(true, 4, 4);
+    }
+
+    /**
+     * @param threads concurrent streams per stage
+     * @param depth   buffers queued after each stage
+     */
+    public Pipeline(final boolean enabled, final int threads, final int depth) {
+        checkArgument(threads > 0, "threads must be positive");
+        checkArgument(depth > 0, "depth must be positive");
+        this.enabled = enabled;
+        this.depth = depth;
+        this.buffers = BufferPool.shared();
+        for (final Step step : Step.values()) {
+            stages.put(step, new Stage(step, threads));
+        }
+    }
+
+    /**
+     * @return the stream produced by the step, pumped on the step executor from its first read
+     */
+    public InputStream stage(final Step step, final InputStream upstream) {
+        if (!enabled) {
+            return upstream;
+        }
+        return new StageInputStream(stages.get(step), upstream);
+    }
+
+    public Map<Step, Stage> getStages() {
+        return Collections.unmodifiableMap(stages);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public String toString() {
+        return stages.values().toString();
+    }
+
+    public enum Step {
+        read, compress, encrypt
+    }
+
+    /**
+     * Executor and figures of a step. Busy time is spent reading the upstream, that is doing the step work,
+     * blocked time waiting for the downstream to free the queue.
+     */
+    public static class Stage {
+        private final Step step;
+        private final ExecutorService executor;
+        private final AtomicInteger queueDepth = new AtomicInteger();
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicLong busyNanos = new AtomicLong();
+        private final AtomicLong blockedNanos = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+
+        Stage(final Step step, final int threads) {
+            this.step = step;
+            this.executor = Executors.newFixedThreadPool(threads,
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("stage-" + step + "-%d").build());
+        }
+
+        public Step getStep() {
+            return step;
+        }
+
+        /**
+         * buffers waiting for the downstream
+         */
+        public int getQueueDepth() {
+            return queueDepth.get();
+        }
+
+        /**
+         * streams being pumped
+         */
+        public int getActive() {
+            return active.get();
+        }
+
+        public long getBusyNanos() {
+            return busyNanos.get();
+        }
+
+        public long getBlockedNanos() {
+            return blockedNanos.get();
+        }
+
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        @Override
+        public String toString() {
+            return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+                    .append("step", step)
+                    .append("queueDepth", queueDepth)
+                    .append("active", active)
+                    .append("busyMs", TimeUnit.NANOSECONDS.toMillis(busyNanos.get()))
+                    .append("blockedMs", TimeUnit.NANOSECONDS.toMillis(blockedNanos.get()))
+                    .append("bytes", bytes)
+                    .toString();
+        }
+    }
+
+    private static class Chunk {
+        static final Chunk end = new Chunk(null, 0, null);
+        final byte[] buf;
+        final int length;
+        final Throwable error;
+
+        Chunk(final byte[] buf, final int length, final Throwable error) {
+            this.buf = buf;
+            this.length = length;
+            this.error = error;
+        }
+    }
+
+    private class StageInputStream extends InputStream {
+        private final Stage stage;
+        private final InputStream upstream;
+        private final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(depth);
+        private Future<?> pump;
+        private volatile boolean closed = false;
+        private Chunk current;
+        private int pos = 0;
+        private boolean ended = false;
+
+        StageInputStream(final Stage stage, final InputStream upstream) {
+            this.stage = stage;
+            this.upstream = upstream;
+        }
+
+        /**
+         * a stream never read holds no thread of the stage
+         */
+        private synchronized void start() {
+            if (pump == null && !closed) {
+                pump = stage.executor.submit(this::pump);
+            }
+        }
+
+        private void pump() {
+            stage.active.incrementAndGet();
+            try {
+                while (!closed) {
+                    final byte[] buf = buffers.acquire();
+                    final long start = System.nanoTime();
+                    final int length = fill(buf);
+                    stage.busyNanos.addAndGet(System.nanoTime() - start);
+                    if (length > 0) {
+                        stage.bytes.addAndGet(length);
+                        offer(new Chunk(buf, length, null));
+                    } else {
+                        buffers.release(buf);
+                    }
+                    if (length < buf.length) {
+                        offer(Chunk.end);
+                        return;
+                    }
+                }
+            } catch (final InterruptedException e) {
+                log.debug("stage:{} interrupted", stage.step);
+            } catch (final Throwable e) {
+                try {
+                    offer(new Chunk(null, 0, e));
+                } catch (final InterruptedException ie) {
+                    log.debug("stage:{} interrupted", stage.step);
+                }
+            } finally {
+                stage.active.decrementAndGet();
+                if (closed) {
+                    drain();
+                }
+            }
+        }
+
+        private void drain() {
+            Chunk chunk;
+            while ((chunk = queue.poll()) != null) {
+                stage.queueDepth.decrementAndGet();
+                release(chunk);
+            }
+        }
+
+        private int fill(final byte[] buf) throws IOException {
+            int pos = 0;
+            while (pos < buf.length) {
+                final int read = upstream.read(buf, pos, buf.length - pos);
+                if (read < 0) {
+                    break;
+                }
+                pos += read;
+            }
+            return pos;
+        }
+
+        private void offer(final Chunk chunk) throws InterruptedException {
+            final long start = System.nanoTime();
+            try {
+                while (!queue.offer(chunk, 1, TimeUnit.SECONDS)) {
+                    if (closed) {
+                        release(chunk);
+                        return;
+                    }
+                    if (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) > stallMillis) {
+                        log.warn("stage:{} abandoned by the consumer", stage.step);
+                        release(chunk);
+                        closed = true;
+                        return;
+                    }
+                }
+                stage.queueDepth.incrementAndGet();
+            } finally {
+                stage.blockedNanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+
+        private void release(final Chunk chunk) {
+            if (chunk != null && chunk.buf != null) {
+                buffers.release(chunk.buf);
+            }
+        }
+
+        private boolean next() throws IOException {
+            if (pump == null) {
+                start();
+            }
+            while (current == null || pos == current.length) {
+                if (ended) {
+                    return false;
+                }
+                if (closed) {
+                    throw new IOException("stream closed");
+                }
+                release(current);
+                current = null;
+                final Chunk chunk;
+                try {
+                    chunk = queue.take();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+                stage.queueDepth.decrementAndGet();
+                if (chunk.error != null) {
+                    ended = true;
+                    if (chunk.error instanceof IOException) {
+                        throw (IOException) chunk.error;
+                    }
+                    throw new IOException(chunk.error);
+                }
+                if (chunk == Chunk.end) {
+                    ended = true;
+                    return false;
+                }
+                current = chunk;
+                pos = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!next()) {
+                return -1;
+            }
+            return current.buf[pos++] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!next()) {
+                return -1;
+            }
+            final int n = Math.min(len, current.length - pos);
+            System.arraycopy(current.buf, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return current != null ? current.length - pos : 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            synchronized (this) {
+                closed = true;
+                if (pump != null) {
+                    pump.cancel(true);
+                }
+            }
+            release(current);
+            current = null;
+            drain();
+            upstream.close();
+        }
+    }
+}
@@ -190,9 +190,7 @@ public class WatcherBroadcaster {
             pathStream.onNext(new PathEvent(event, resolve));
             return;
         }
-        if (localConfig.getLocalFiles().stream()
-                .filter(file -> file.getPath().equals(path))
-                .findFirst().isPresent()) {
+        if (localConfig.findLocalFile(path).isPresent()) {
             pathStream.onNext(new PathEvent(event, basePath.resolve(path)));
         }
     }
@@ -30,11 +30,14 @@ import javafx.fxml.Initializable;
 import javafx.scene.Cursor;
 import javafx.scene.control.Button;
 import javafx.scene.control.CheckBox;
+import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
+import javafx.scene.control.Tooltip;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import rx.schedulers.Schedulers;
+import ubicrypt.core.codec.Codec;
 import ubicrypt.core.provider.ProviderCommander;
 import ubicrypt.core.provider.ftp.FTPConf;
 import ubicrypt.core.provider.ftp.FTProvider;
@@ -61,6 +64,8 @@ public class FTProviderController implements Initializable {
     Label error;
     @FXML
     TextField folder;
+    @FXML
+    ChoiceBox<Codec> codec;
     @Inject
     ProviderCommander providerCommander;
     private final EventHandler<? super KeyEvent> onKeyPressed = event -> {
@@ -138,6 +143,7 @@ public class FTProviderController implements Initializable {
             conf.setPassword(password.getText().toCharArray());
         }
         ftp.setConf(conf);
+        ftp.setCodec(codec.getValue());
 
         anchor().browse("wait", "Registering FTP provider");
         try {
@@ -161,6 +167,9 @@ public class FTProviderController implements Initializable {
     @Override
     public void initialize(final URL location, final ResourceBundle resources) {
         add.setDisable(true);
+        codec.getItems().setAll(Codec.values());
+        //left empty, files are deflated as earlier versions expect
+        codec.setTooltip(new Tooltip("Optional, not readable by earlier versions"));
         anchor().getControllerPublisher().onNext(this);
     }
 
@@ -172,5 +181,6 @@ public class FTProviderController implements Initializable {
         anonymous.setSelected(false);
         username.setText("");
         password.setText("");
+        codec.setValue(null);
     }
 }
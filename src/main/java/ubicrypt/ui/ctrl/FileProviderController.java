@@ -25,9 +25,12 @@ import javax.inject.Inject;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
 import javafx.scene.control.Button;
+import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.TextField;
+import javafx.scene.control.Tooltip;
 import javafx.stage.DirectoryChooser;
 import javafx.stage.Stage;
+import ubicrypt.core.codec.Codec;
 import ubicrypt.core.provider.ProviderCommander;
 import ubicrypt.core.provider.file.FileConf;
 import ubicrypt.core.provider.file.FileProvider;
@@ -53,16 +56,21 @@ public class FileProviderController implements Initializable, OnShow {
     TextField textFolder;
     @FXML
     Button back;
+    @FXML
+    ChoiceBox<Codec> codec;
 
     @Override
     public void initialize(final URL location, final ResourceBundle resources) {
         Anchor.anchor().getControllerPublisher().onNext(this);
-
+        codec.getItems().setAll(Codec.values());
+        //left empty, files are deflated as earlier versions expect
+        codec.setTooltip(new Tooltip("Optional, not readable by earlier versions"));
     }
 
     @Override
     public void onShow() {
         textFolder.setText(null);
+        codec.setValue(null);
         submit.setDisable(true);
         selectFolder.setOnMouseClicked(event -> {
             final DirectoryChooser fc = new DirectoryChooser();
@@ -75,6 +83,7 @@ public class FileProviderController implements Initializable, OnShow {
         submit.setOnMouseClicked(event -> {
             final FileProvider provider = new FileProvider();
             provider.setConf(new FileConf(Paths.get(textFolder.getText())));
+            provider.setCodec(codec.getValue());
             providerCommander.register(provider)
                     .filter(Boolean::booleanValue)
                     .subscribe(res -> log.info("new provider:{}, add result:{}", provider, res), err -> log.error(err.getMessage(), err));
@@ -286,9 +286,7 @@ public class HomeController implements Initializable, ApplicationContextAware {
         fileEvents.filter(fileEvent -> fileEvent.getLocation() == FileEvent.Location.local && fileEvent.getType() == FileEvent.Type.created)
                 .subscribe(fileEvent -> {
                     log.debug("file local event:{}", fileEvent);
-                    localConfig.getLocalFiles().stream()
-                            .filter(fileEvent.getFile()::equals)
-                            .findFirst()
+                    localConfig.findLocalFile(fileEvent.getFile())
                             .ifPresent(fe -> addFiles(fileEvent.getFile().getPath().iterator(), basePath, filesRoot, fe));
                     searchFile(filesRoot, fileEvent.getFile()).ifPresent(treeView -> {
                         final Node graphics = treeView.getValue().getGraphics();
@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+
+import ubicrypt.core.dto.LocalConfig;
+import ubicrypt.core.dto.LocalFile;
+import ubicrypt.core.dto.RemoteConfig;
+import ubicrypt.core.dto.RemoteFile;
+import ubicrypt.core.dto.VClock;
+import ubicrypt.core.provider.IRepository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class ClockPrunerTest {
+    @Test
+    public void retireAgreeing() throws Exception {
+        final int agreeing = ThreadLocalRandom.current().nextInt(Integer.MIN_VALUE, -1000);
+        final int disagreeing = agreeing + 1;
+        final int unknown = agreeing + 2;
+        final LocalConfig localConfig = new LocalConfig();
+        final RemoteConfig remoteConfig = new RemoteConfig();
+        final Instant old = Instant.now().minus(Duration.ofDays(10));
+        remoteConfig.getDevices().put(agreeing, old);
+        remoteConfig.getDevices().put(disagreeing, old);
+        final LocalFile local = new LocalFile();
+        local.getVclock().increment(agreeing);
+        local.getVclock().increment(disagreeing);
+        local.getVclock().increment(unknown);
+        final RemoteFile remote = RemoteFile.createFrom(local);
+        remote.getVclock().increment(disagreeing);
+
+        final ClockPruner pruner = new ClockPruner(Duration.ofDays(5), 1, localConfig, ImmutableList.of(remoteConfig));
+        pruner.visit(ImmutableList.of(new FileProvenience(local, mock(IRepository.class)), new FileProvenience(remote, mock(IRepository.class))));
+        pruner.completed();
+        assertThat(localConfig.getRetired().isRetired(agreeing)).isTrue();
+        assertThat(localConfig.getRetired().isRetired(disagreeing)).isFalse();
+        assertThat(localConfig.getRetired().isRetired(unknown)).isFalse();
+        assertThat(localConfig.getRetiredDevices()).containsOnly(agreeing);
+        assertThat(remoteConfig.getRetiredDevices()).containsOnly(agreeing);
+        assertThat(remoteConfig.getDevices()).containsOnlyKeys(disagreeing, unknown);
+        assertThat(remote.compare(local, localConfig.getRetired())).isEqualTo(VClock.Comparison.newer);
+
+        //next pass folds the retired device
+        new ClockPruner(Duration.ofDays(5), 1, localConfig, ImmutableList.of(remoteConfig))
+                .visit(ImmutableList.of(new FileProvenience(local, mock(IRepository.class))));
+        assertThat(local.getVclock().getMap()).containsOnlyKeys(disagreeing, unknown);
+        assertThat(local.getVclock().getBase()).isEqualTo(1L);
+        assertThat(remote.compare(local, localConfig.getRetired())).isEqualTo(VClock.Comparison.newer);
+    }
+}
@@ -54,11 +54,13 @@ import rx.schedulers.Schedulers;
 import rx.subjects.PublishSubject;
 import rx.subjects.ReplaySubject;
 import rx.subjects.Subject;
+import ubicrypt.core.codec.CompressionStats;
 import ubicrypt.core.crypto.IPGPService;
 import ubicrypt.core.crypto.PGPEC;
 import ubicrypt.core.crypto.PGPService;
 import ubicrypt.core.dto.LocalConfig;
 import ubicrypt.core.dto.LocalFile;
+import ubicrypt.core.dto.RetiredDevices;
 import ubicrypt.core.dto.UbiFile;
 import ubicrypt.core.provider.FileEvent;
 import ubicrypt.core.provider.LocalRepository;
@@ -67,6 +69,7 @@ import ubicrypt.core.provider.ProviderHook;
 import ubicrypt.core.provider.ProviderLifeCycle;
 import ubicrypt.core.provider.ProviderStatus;
 import ubicrypt.core.util.InProgressTracker;
+import ubicrypt.core.util.Pipeline;
 import ubicrypt.core.util.QueueLiner;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -269,6 +272,21 @@ public class FileCommanderIT implements ApplicationContextAware {
         public QueueLiner<Boolean> queueLiner(@Value("${saveConfIntervalMs:10000}") final Long saveConfIntervalMs) {
             return new QueueLiner<>(saveConfIntervalMs);
         }
+
+        @Bean
+        public CompressionStats compressionStats() {
+            return new CompressionStats();
+        }
+
+        @Bean
+        public Pipeline pipeline() {
+            return new Pipeline();
+        }
+
+        @Bean
+        public RetiredDevices retiredDevices(final LocalConfig localConfig) {
+            return localConfig.getRetired();
+        }
     }
 
 }
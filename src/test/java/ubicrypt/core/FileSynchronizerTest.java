@@ -13,26 +13,46 @@
  */
 package ubicrypt.core;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Multimap;
 
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
+import rx.Observable;
+import rx.observers.TestSubscriber;
+import rx.subjects.PublishSubject;
 import ubicrypt.core.dto.LocalConfig;
 import ubicrypt.core.dto.LocalFile;
+import ubicrypt.core.dto.RemoteConfig;
 import ubicrypt.core.dto.RemoteFile;
 import ubicrypt.core.provider.IRepository;
 import ubicrypt.core.provider.LocalRepository;
+import ubicrypt.core.provider.ProviderHook;
+import ubicrypt.core.provider.ProviderLifeCycle;
+import ubicrypt.core.provider.RemoteRepository;
+import ubicrypt.core.provider.UbiProvider;
+import ubicrypt.core.provider.lock.AcquirerReleaser;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 
 public class FileSynchronizerTest {
 
@@ -258,6 +278,112 @@ public class FileSynchronizerTest {
 
     }
 
+    @Test
+    public void classifyPartialConflict() throws Exception {
+        final UUID uuid = UUID.randomUUID();
+        final FileProvenience fp1 = new FileProvenience(new LocalFile() {{
+            setId(uuid);
+            getVclock().increment(1);
+        }}, mock(IRepository.class));
+        final FileProvenience fp2 = new FileProvenience(new RemoteFile() {{
+            setId(uuid);
+            getVclock().increment(2);
+        }}, mock(IRepository.class));
+        final FileProvenience fp3 = new FileProvenience(new RemoteFile() {{
+            setId(uuid);
+            getVclock().increment(1);
+            getVclock().increment(2);
+        }}, mock(IRepository.class));
+        final FileSynchronizer.Versions versions = FileSynchronizer.classify(uuid, ImmutableList.of(fp1, fp2, fp3));
+        assertThat(versions.getMax()).isSameAs(fp3);
+        assertThat(versions.isConflicting()).isTrue();
+        assertThat(versions.isAllConflicting()).isFalse();
+    }
+
+    @Test
+    public void slowProviderLeftOut() throws Exception {
+        final FileSynchronizer ifs = new FileSynchronizer();
+        ifs.synchProcessing = PublishSubject.create();
+        ifs.providerGatherMs = 50;
+        ifs.providerDeadlineMs = 500;
+        final LocalFile file = new LocalFile() {{
+            setPath(Paths.get("file"));
+            getVclock().increment(deviceId);
+        }};
+        ifs.localConfig = new LocalConfig() {{
+            getLocalFiles().add(file);
+        }};
+        ifs.localRepository = mock(LocalRepository.class);
+        doReturn(true).when(ifs.localRepository).isLocal();
+        final RemoteRepository fast = mock(RemoteRepository.class);
+        doReturn(Observable.just(true)).when(fast).save(any(FileProvenience.class));
+        final RemoteRepository slow = mock(RemoteRepository.class);
+        ifs.providers = mock(ProviderLifeCycle.class);
+        doReturn(ImmutableList.of(
+                new ProviderHook(mock(UbiProvider.class), subscriber -> {
+                    subscriber.onNext(new AcquirerReleaser(new RemoteConfig(), () -> {
+                    }));
+                    subscriber.onCompleted();
+                }, fast),
+                new ProviderHook(mock(UbiProvider.class), subscriber -> {
+                }, slow))).when(ifs.providers).currentlyActiveProviders();
+
+        final long start = System.currentTimeMillis();
+        final TestSubscriber<Boolean> subscriber = new TestSubscriber<>();
+        Observable.create(ifs).subscribe(subscriber);
+        verify(fast, timeout(400)).save(any(FileProvenience.class));
+        assertThat(System.currentTimeMillis() - start).isLessThan(500);
+        subscriber.awaitTerminalEvent(2, TimeUnit.SECONDS);
+        subscriber.assertNoErrors();
+        subscriber.assertValue(true);
+        verifyZeroInteractions(slow);
+    }
+
+    @Test
+    public void restoreSmallFirst() throws Exception {
+        final FileSynchronizer ifs = new FileSynchronizer();
+        ifs.synchProcessing = PublishSubject.create();
+        ifs.providerGatherMs = 50;
+        ifs.restoreParallelism = 2;
+        ifs.localConfig = new LocalConfig();
+        final RemoteConfig remoteConfig = new RemoteConfig();
+        for (long length : new long[]{50, 10, 40, 20, 30}) {
+            remoteConfig.getRemoteFiles().add(new RemoteFile() {{
+                setPath(Paths.get("file" + length));
+                setSize(length);
+                getVclock().increment(deviceId);
+            }});
+        }
+        final List<Long> restored = new CopyOnWriteArrayList<>();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        ifs.localRepository = mock(LocalRepository.class);
+        doReturn(true).when(ifs.localRepository).isLocal();
+        doAnswer(invocation -> Observable.just(true).delay(50, TimeUnit.MILLISECONDS)
+                .doOnSubscribe(() -> {
+                    restored.add(((FileProvenience) invocation.getArguments()[0]).getFile().getSize());
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                })
+                .doOnTerminate(running::decrementAndGet))
+                .when(ifs.localRepository).save(any(FileProvenience.class));
+        final RemoteRepository repository = mock(RemoteRepository.class);
+        ifs.providers = mock(ProviderLifeCycle.class);
+        doReturn(ImmutableList.of(new ProviderHook(mock(UbiProvider.class), subscriber -> {
+            subscriber.onNext(new AcquirerReleaser(remoteConfig, () -> {
+            }));
+            subscriber.onCompleted();
+        }, repository))).when(ifs.providers).currentlyActiveProviders();
+
+        final TestSubscriber<Boolean> subscriber = new TestSubscriber<>();
+        Observable.create(ifs).subscribe(subscriber);
+        subscriber.awaitTerminalEvent(2, TimeUnit.SECONDS);
+        subscriber.assertNoErrors();
+        assertThat(restored).containsExactly(10L, 20L, 30L, 40L, 50L);
+        assertThat(maxRunning.get()).isEqualTo(2);
+        //the provider already holds every file
+        verify(repository, never()).save(any(FileProvenience.class));
+    }
+
     @Test
     public void updateLocal() throws Exception {
 
@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.function.LongSupplier;
+import java.util.function.UnaryOperator;
+
+import ubicrypt.core.dto.LocalConfig;
+import ubicrypt.core.dto.LocalFile;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static ubicrypt.core.TestUtils.tmp;
+
+public class InitLocalConfPersistorTest {
+    private final Path file = tmp.resolve("config.log");
+
+    @Before
+    public void setUp() throws Exception {
+        TestUtils.deleteDirs();
+        TestUtils.createDirs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestUtils.deleteDirs();
+    }
+
+    private static void waitFor(final LongSupplier counter, final long expected) throws InterruptedException {
+        for (int i = 0; i < 100 && counter.getAsLong() < expected; i++) {
+            Thread.sleep(50);
+        }
+    }
+
+    @Test
+    public void window() throws Exception {
+        final LocalConfig config = new LocalConfig();
+        final LocalFile a = new LocalFile();
+        a.setPath(Paths.get("a"));
+        config.getLocalFiles().add(a);
+        final InitLocalConfPersistor persistor = new InitLocalConfPersistor();
+        persistor.localConfig = config;
+        persistor.logFile = file;
+        persistor.windowMs = 200;
+        persistor.setEnvironment(new MockEnvironment().withProperty("pgp.enabled", "false"));
+        persistor.init();
+        //first snapshot
+        waitFor(persistor::getWrites, 1);
+        assertThat(persistor.getWrites()).isEqualTo(1);
+
+        //several changes within the window, written once
+        for (int i = 1; i <= 5; i++) {
+            a.setSize(i);
+        }
+        waitFor(persistor::getWrites, 2);
+        Thread.sleep(400);
+        assertThat(persistor.getWrites()).isEqualTo(2);
+        assertThat(persistor.getSkipped()).isEqualTo(4);
+        assertThat(LocalConfigLog.replay(file, UnaryOperator.<InputStream>identity()).findLocalFile(a.getId()).get().getSize()).isEqualTo(5);
+
+        //change still pending when shutting down
+        a.setSize(100);
+        persistor.close();
+        assertThat(persistor.getWrites()).isEqualTo(3);
+        assertThat(LocalConfigLog.replay(file, UnaryOperator.<InputStream>identity()).findLocalFile(a.getId()).get().getSize()).isEqualTo(100);
+    }
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core;
+
+import com.google.common.primitives.Ints;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import ubicrypt.core.dto.LocalConfig;
+import ubicrypt.core.dto.LocalFile;
+
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static ubicrypt.core.TestUtils.tmp;
+
+public class LocalConfigLogTest {
+    private final Path file = tmp.resolve("config.log");
+    private final UnaryOperator<InputStream> plain = UnaryOperator.identity();
+
+    @Before
+    public void setUp() throws Exception {
+        TestUtils.deleteDirs();
+        TestUtils.createDirs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestUtils.deleteDirs();
+    }
+
+    private static LocalFile file(final String path) {
+        final LocalFile ret = new LocalFile();
+        ret.setPath(Paths.get(path));
+        return ret;
+    }
+
+    @Test
+    public void replayChanges() throws Exception {
+        final LocalConfig config = new LocalConfig();
+        final LocalFile a = file("a");
+        final LocalFile b = file("b");
+        config.getLocalFiles().add(a);
+        config.getLocalFiles().add(b);
+        try (final LocalConfigLog configLog = new LocalConfigLog(file, plain)) {
+            assertThat(configLog.append(config)).isTrue();
+            assertThat(configLog.append(config)).isFalse();
+            final long snapshot = Files.size(file);
+
+            a.setSize(10);
+            a.getVclock().increment(1);
+            config.getLocalFiles().remove(b);
+            config.getLocalFiles().add(file("c"));
+            config.getTrackedFolders().add(Paths.get("folder"));
+            assertThat(configLog.append(config)).isTrue();
+            assertThat(configLog.append(config)).isFalse();
+            assertThat(Files.size(file)).isGreaterThan(snapshot);
+        }
+
+        final LocalConfig replayed = LocalConfigLog.replay(file, plain);
+        assertThat(replayed.getLocalFiles()).hasSize(2);
+        assertThat(replayed.findLocalFile(Paths.get("b"))).isEmpty();
+        assertThat(replayed.findLocalFile(Paths.get("c"))).isPresent();
+        assertThat(replayed.findLocalFile(a.getId()).get().getSize()).isEqualTo(10);
+        assertThat(replayed.findLocalFile(a.getId()).get().getVclock().get(1)).isEqualTo(1);
+        assertThat(replayed.getTrackedFolders()).containsExactly(Paths.get("folder"));
+    }
+
+    @Test
+    public void changedOnly() throws Exception {
+        final LocalConfig config = new LocalConfig();
+        final List<LocalFile> files = IntStream.range(0, 100).mapToObj(i -> file("f" + i)).collect(Collectors.toList());
+        config.getLocalFiles().addAll(files);
+        try (final LocalConfigLog configLog = new LocalConfigLog(file, plain)) {
+            configLog.append(config);
+            final long snapshot = Files.size(file);
+            // only the clock changed
+            files.get(5).getVclock().increment(1);
+            assertThat(configLog.append(config)).isTrue();
+            assertThat(Files.size(file) - snapshot).isLessThan(snapshot / 10);
+            assertThat(configLog.append(config)).isFalse();
+        }
+        assertThat(LocalConfigLog.replay(file, plain).findLocalFile(files.get(5).getId()).get().getVclock().get(1)).isEqualTo(1);
+    }
+
+    @Test
+    public void tornTail() throws Exception {
+        final LocalConfig config = new LocalConfig();
+        final LocalFile a = file("a");
+        config.getLocalFiles().add(a);
+        try (final LocalConfigLog configLog = new LocalConfigLog(file, plain)) {
+            configLog.append(config);
+            a.setSize(10);
+            configLog.append(config);
+        }
+        // crash in the middle of the last record
+        try (final FileChannel channel = FileChannel.open(file, WRITE)) {
+            channel.truncate(channel.size() - 5);
+        }
+        final LocalConfig replayed = LocalConfigLog.replay(file, plain);
+        assertThat(replayed.findLocalFile(a.getId()).get().getSize()).isEqualTo(0);
+    }
+
+    @Test
+    public void corruptedLength() throws Exception {
+        final LocalConfig config = new LocalConfig();
+        final LocalFile a = file("a");
+        config.getLocalFiles().add(a);
+        final long snapshot;
+        try (final LocalConfigLog configLog = new LocalConfigLog(file, plain)) {
+            configLog.append(config);
+            snapshot = Files.size(file);
+            a.setSize(10);
+            configLog.append(config);
+        }
+        // length of the last record beyond the end of the log
+        try (final FileChannel channel = FileChannel.open(file, WRITE)) {
+            channel.write(ByteBuffer.wrap(Ints.toByteArray(Integer.MAX_VALUE - 1)), snapshot);
+        }
+        assertThat(LocalConfigLog.replay(file, plain).findLocalFile(a.getId()).get().getSize()).isEqualTo(0);
+
+        // length still within the log, caught by the crc
+        try (final FileChannel channel = FileChannel.open(file, WRITE)) {
+            channel.write(ByteBuffer.wrap(Ints.toByteArray(1)), snapshot);
+        }
+        assertThat(LocalConfigLog.replay(file, plain).findLocalFile(a.getId()).get().getSize()).isEqualTo(0);
+    }
+
+    @Test
+    public void unreadableHead() throws Exception {
+        final LocalConfig config = new LocalConfig();
+        final LocalFile a = file("a");
+        config.getLocalFiles().add(a);
+        try (final LocalConfigLog configLog = new LocalConfigLog(file, plain)) {
+            configLog.append(config);
+        }
+        final Path snapshot = tmp.resolve("config.log.tmp");
+        Files.copy(file, snapshot);
+        try (final FileChannel channel = FileChannel.open(file, WRITE)) {
+            channel.write(ByteBuffer.wrap(Ints.toByteArray(1)), 0);
+        }
+        // restored from the snapshot of an interrupted compaction
+        assertThat(LocalConfigLog.replay(file, plain).findLocalFile(a.getId())).isPresent();
+
+        Files.delete(snapshot);
+        assertThatThrownBy(() -> LocalConfigLog.replay(file, plain)).isInstanceOf(IllegalStateException.class);
+        assertThat(LocalConfigLog.replay(tmp.resolve("missing.log"), plain)).isNull();
+    }
+
+    @Test
+    public void compact() throws Exception {
+        final LocalConfig config = new LocalConfig();
+        final LocalFile a = file("a");
+        config.getLocalFiles().add(a);
+        try (final LocalConfigLog configLog = new LocalConfigLog(file, plain)) {
+            configLog.append(config);
+            for (int i = 1; i <= 100; i++) {
+                a.setSize(i);
+                configLog.append(config);
+            }
+            assertThat(configLog.shouldCompact(0)).isTrue();
+            final long size = Files.size(file);
+            configLog.compact(config);
+            assertThat(configLog.shouldCompact(0)).isFalse();
+            assertThat(Files.size(file)).isLessThan(size);
+            a.setSize(1000);
+            configLog.append(config);
+        }
+        assertThat(Files.exists(tmp.resolve("config.log.tmp"))).isFalse();
+        assertThat(LocalConfigLog.replay(file, plain).findLocalFile(a.getId()).get().getSize()).isEqualTo(1000);
+    }
+}
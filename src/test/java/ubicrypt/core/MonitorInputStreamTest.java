@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MonitorInputStreamTest {
+
+    @Test
+    public void sampledByBytes() throws Exception {
+        final MonitorInputStream mis = new MonitorInputStream(new ByteArrayInputStream(new byte[10 << 20]), 1 << 20, TimeUnit.HOURS.toNanos(1));
+        IOUtils.copyLarge(mis, new NullOutputStream(), new byte[1 << 16]);
+        final List<Long> progress = mis.monitor().toList().toBlocking().single();
+        assertThat(progress).hasSize(11);
+        assertThat(progress.get(0)).isEqualTo(1 << 20);
+        assertThat(progress.get(10)).isEqualTo(10 << 20);
+    }
+
+    @Test
+    public void singleBytes() throws Exception {
+        final MonitorInputStream mis = new MonitorInputStream(new ByteArrayInputStream(new byte[10]), 4);
+        while (mis.read() != -1) {
+        }
+        assertThat(mis.read()).isEqualTo(-1);
+        assertThat(mis.monitor().toList().toBlocking().single()).containsExactly(4L, 8L, 10L);
+    }
+}
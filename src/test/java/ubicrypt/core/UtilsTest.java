@@ -20,6 +20,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -112,6 +113,25 @@ public class UtilsTest {
         }
     }
 
+    @Test
+    public void overwriteShorter() throws Exception {
+        final Path path = Files.createTempFile(TestUtils.tmp, "a", "b");
+        Utils.write(path, new byte[1 << 17]).toBlocking().last();
+        Utils.write(path, "ciao".getBytes()).toBlocking().last();
+        assertThat(Files.readAllBytes(path)).isEqualTo("ciao".getBytes());
+    }
+
+    @Test
+    public void read() throws Exception {
+        final byte[] bytes = new byte[(1 << 16) * 2 + 5];
+        new Random().nextBytes(bytes);
+        final Path path = Files.createTempFile(TestUtils.tmp, "a", "b");
+        Files.write(path, bytes);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Utils.read(path).toBlocking().forEach(chunk -> out.write(chunk, 0, chunk.length));
+        assertThat(out.toByteArray()).isEqualTo(bytes);
+    }
+
     @Test
     public void instantSerialize() throws Exception {
         final String now = IOUtils.toString(Utils.marshall(Instant.now()));
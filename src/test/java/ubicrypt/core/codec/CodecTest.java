@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.codec;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class CodecTest {
+
+    private static byte[] text(final int size) {
+        final StringBuilder sb = new StringBuilder();
+        final Random rnd = new Random(1);
+        while (sb.length() < size) {
+            sb.append("line ").append(rnd.nextInt(1000)).append(" of the file\n");
+        }
+        return sb.substring(0, size).getBytes();
+    }
+
+    private static byte[] random(final int size) {
+        final byte[] bytes = new byte[size];
+        new Random().nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void roundtrip() throws Exception {
+        for (final Codec codec : Codec.values()) {
+            for (final byte[] bytes : new byte[][]{new byte[0], text(10), text(Lz4.blockSize * 3 + 17), random(Lz4.blockSize + 1), new byte[Lz4.blockSize * 2]}) {
+                final byte[] encoded = IOUtils.toByteArray(codec.encode(new ByteArrayInputStream(bytes)));
+                assertThat(IOUtils.toByteArray(codec.decode(new ByteArrayInputStream(encoded)))).as(codec.name()).isEqualTo(bytes);
+            }
+        }
+    }
+
+    @Test
+    public void lz4Compresses() throws Exception {
+        final byte[] bytes = text(1 << 20);
+        assertThat(IOUtils.toByteArray(Codec.lz4.encode(new ByteArrayInputStream(bytes))).length).isLessThan(bytes.length / 2);
+    }
+
+    @Test
+    public void lz4Truncated() throws Exception {
+        final byte[] encoded = IOUtils.toByteArray(Codec.lz4.encode(new ByteArrayInputStream(text(1 << 16))));
+        try {
+            IOUtils.toByteArray(Codec.lz4.decode(new ByteArrayInputStream(encoded, 0, encoded.length - 4)));
+            fail("truncation not detected");
+        } catch (final IOException e) {
+        }
+    }
+
+    @Test
+    public void legacy() throws Exception {
+        assertThat(Codec.of(null)).isEqualTo(Codec.deflateBest);
+        assertThat(Codec.of(Codec.lz4)).isEqualTo(Codec.lz4);
+    }
+
+    @Test
+    public void parallelDeflateIsZlib() throws Exception {
+        for (final byte[] bytes : new byte[][]{new byte[0], text(ParallelDeflaterInputStream.blockSize * 2), text(ParallelDeflaterInputStream.blockSize * 5 + 3), random(ParallelDeflaterInputStream.blockSize + 1)}) {
+            final byte[] encoded = IOUtils.toByteArray(new ParallelDeflaterInputStream(new ByteArrayInputStream(bytes), Deflater.BEST_COMPRESSION));
+            assertThat(IOUtils.toByteArray(new InflaterInputStream(new ByteArrayInputStream(encoded)))).isEqualTo(bytes);
+        }
+        final byte[] bytes = text(1 << 20);
+        assertThat(IOUtils.toByteArray(Codec.deflateFast.encode(new ByteArrayInputStream(bytes))).length).isLessThan(bytes.length / 2);
+    }
+
+    @Test
+    public void zlibReleased() throws Exception {
+        final int outstanding = ZlibPool.getOutstanding();
+        final byte[] bytes = text(ParallelDeflaterInputStream.blockSize * 3);
+        final byte[] encoded = IOUtils.toByteArray(Codec.deflateBest.encode(new ByteArrayInputStream(bytes)));
+        assertThat(ZlibPool.getOutstanding()).isEqualTo(outstanding);
+        //read to the end
+        final InputStream decoded = Codec.deflateBest.decode(new ByteArrayInputStream(encoded));
+        assertThat(IOUtils.toByteArray(decoded)).isEqualTo(bytes);
+        assertThat(decoded.read()).isEqualTo(-1);
+        assertThat(ZlibPool.getOutstanding()).isEqualTo(outstanding);
+        //closed before the end
+        final InputStream partial = Codec.deflateBest.decode(new ByteArrayInputStream(encoded));
+        assertThat(partial.read()).isEqualTo(bytes[0]);
+        assertThat(ZlibPool.getOutstanding()).isEqualTo(outstanding + 1);
+        partial.close();
+        assertThat(ZlibPool.getOutstanding()).isEqualTo(outstanding);
+    }
+}
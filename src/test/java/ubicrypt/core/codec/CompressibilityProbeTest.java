@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.codec;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompressibilityProbeTest {
+
+    private static CompressibilityProbe probe(final byte[] bytes) throws Exception {
+        final CompressibilityProbe probe = CompressibilityProbe.probe(new ByteArrayInputStream(bytes));
+        assertThat(IOUtils.toByteArray(probe.getStream())).isEqualTo(bytes);
+        return probe;
+    }
+
+    @Test
+    public void random() throws Exception {
+        final byte[] bytes = new byte[CompressibilityProbe.sampleSize * 2 + 3];
+        new Random().nextBytes(bytes);
+        assertThat(probe(bytes).isIncompressible()).isTrue();
+    }
+
+    @Test
+    public void text() throws Exception {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            sb.append("line ").append(i).append('\n');
+        }
+        assertThat(probe(sb.toString().getBytes()).isIncompressible()).isFalse();
+        assertThat(probe(new byte[0]).isIncompressible()).isFalse();
+    }
+
+    @Test
+    public void magic() throws Exception {
+        final byte[] jpeg = new byte[100];
+        jpeg[0] = (byte) 0xff;
+        jpeg[1] = (byte) 0xd8;
+        jpeg[2] = (byte) 0xff;
+        assertThat(probe(jpeg).isIncompressible()).isTrue();
+        final byte[] mp4 = new byte[100];
+        System.arraycopy("ftypisom".getBytes(), 0, mp4, 4, 8);
+        assertThat(probe(mp4).isIncompressible()).isTrue();
+    }
+
+    @Test
+    public void stats() throws Exception {
+        final CompressionStats stats = new CompressionStats();
+        final byte[] zeros = new byte[1 << 20];
+        IOUtils.toByteArray(stats.encode(Codec.deflateFast, new ByteArrayInputStream(zeros), false));
+        assertThat(stats.getBytesIn()).isEqualTo(zeros.length);
+        assertThat(stats.getBytesSaved()).isGreaterThan(zeros.length / 2);
+        IOUtils.toByteArray(stats.encode(Codec.none, new ByteArrayInputStream(zeros), true));
+        assertThat(stats.getSkippedFiles()).isEqualTo(1);
+        assertThat(stats.getSkippedBytes()).isEqualTo(zeros.length);
+    }
+}
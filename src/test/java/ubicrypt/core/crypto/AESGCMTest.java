@@ -19,9 +19,11 @@ import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.Random;
 import java.util.zip.DeflaterInputStream;
 import java.util.zip.InflaterInputStream;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static ubicrypt.core.crypto.AESGCM.decryptIs;
 import static ubicrypt.core.crypto.AESGCM.encryptIs;
 
@@ -35,4 +37,22 @@ public class AESGCMTest {
         final InputStream decrypt2InputStream = decryptIs(key, new InflaterInputStream(cipherStream));
         Assertions.assertThat(IOUtils.toString(decrypt2InputStream)).isEqualTo("Ciao");
     }
+
+    @Test
+    public void jceCompatible() throws Exception {
+        final byte[] key = AESGCM.rndKey();
+        final byte[] bytes = new byte[(1 << 20) + 7];
+        new Random().nextBytes(bytes);
+        final AESGCM.Engine engine = AESGCM.getEngine();
+        try {
+            AESGCM.setEngine(AESGCM.Engine.jce);
+            final byte[] jce = IOUtils.toByteArray(encryptIs(key, new ByteArrayInputStream(bytes)));
+            AESGCM.setEngine(AESGCM.Engine.bc);
+            final byte[] bc = IOUtils.toByteArray(encryptIs(key, new ByteArrayInputStream(bytes)));
+            assertThat(jce).hasSize(bc.length);
+            assertThat(IOUtils.toByteArray(decryptIs(key, new ByteArrayInputStream(jce)))).isEqualTo(bytes);
+        } finally {
+            AESGCM.setEngine(engine);
+        }
+    }
 }
@@ -30,6 +30,7 @@ import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 import java.util.stream.Collectors;
 
 import ubicrypt.core.Utils;
@@ -73,6 +74,15 @@ public class PGPECTest {
         assertThat(new String(IOUtils.toByteArray(is))).isEqualTo(str);
     }
 
+    @Test
+    public void encDecLarge() throws Exception {
+        final PGPKeyPair kp = encryptionKey();
+        final byte[] bytes = new byte[(1 << 16) * 5 + 3];
+        new Random().nextBytes(bytes);
+        final InputStream encrypt = encrypt(Collections.singletonList(kp.getPublicKey()), new ByteArrayInputStream(bytes));
+        assertThat(IOUtils.toByteArray(decrypt(kp.getPrivateKey(), encrypt))).isEqualTo(bytes);
+    }
+
     @Test
     public void serializeKey() throws Exception {
         final char[] passPhrase = "pass".toCharArray();
@@ -13,15 +13,24 @@
  */
 package ubicrypt.core.crypto;
 
+import org.apache.commons.io.IOUtils;
+import org.bouncycastle.openpgp.PGPKeyPair;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Test;
 import org.slf4j.Logger;
 
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
 import ubicrypt.core.TestUtils;
+import ubicrypt.core.dto.LocalConfig;
+import ubicrypt.core.util.PGPKValue;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.slf4j.LoggerFactory.getLogger;
 
-class PGPServiceTest {
+public class PGPServiceTest {
     private static final Logger log = getLogger(PGPServiceTest.class);
 
     @Before
@@ -37,6 +46,43 @@ class PGPServiceTest {
 
     }
 
+    private static byte[] encrypt(final PGPService pgp, final String clear) throws Exception {
+        return IOUtils.toByteArray(pgp.encrypt(new ByteArrayInputStream(clear.getBytes())));
+    }
+
+    @Test
+    public void envelope() throws Exception {
+        final LocalConfig config = new LocalConfig();
+        final PGPKeyPair other = PGPEC.encryptionKey();
+        config.getOwnedPKs().add(new PGPKValue(other.getPublicKey()));
+        final PGPService pgp = new PGPService(PGPEC.encryptionKey(), config);
+        pgp.setEnvelope(true);
+        final byte[] first = encrypt(pgp, "ciao");
+        final byte[] second = encrypt(pgp, "ciao2");
+        assertThat(new String(first, 0, 4)).isEqualTo("UBEV");
+        //same wrapped data key
+        assertThat(Arrays.copyOf(second, 200)).isEqualTo(Arrays.copyOf(first, 200));
+        assertThat(IOUtils.toString(pgp.decrypt(new ByteArrayInputStream(first)))).isEqualTo("ciao");
+        assertThat(IOUtils.toString(pgp.decrypt(new ByteArrayInputStream(second)))).isEqualTo("ciao2");
+        //readable by the other recipient
+        assertThat(IOUtils.toString(new PGPService(other, new LocalConfig()).decrypt(new ByteArrayInputStream(second)))).isEqualTo("ciao2");
+
+        //recipients changed
+        config.getOwnedPKs().add(new PGPKValue(PGPEC.encryptionKey().getPublicKey()));
+        final byte[] third = encrypt(pgp, "ciao3");
+        assertThat(Arrays.copyOf(third, 200)).isNotEqualTo(Arrays.copyOf(first, 200));
+        assertThat(IOUtils.toString(pgp.decrypt(new ByteArrayInputStream(third)))).isEqualTo("ciao3");
+    }
+
+    @Test
+    public void legacy() throws Exception {
+        final PGPService pgp = new PGPService(PGPEC.encryptionKey(), new LocalConfig());
+        pgp.setEnvelope(false);
+        final byte[] encrypted = encrypt(pgp, "ciao");
+        pgp.setEnvelope(true);
+        assertThat(IOUtils.toString(pgp.decrypt(new ByteArrayInputStream(encrypted)))).isEqualTo("ciao");
+    }
+
 /*
     @Test
     public void pkRing() throws Exception {
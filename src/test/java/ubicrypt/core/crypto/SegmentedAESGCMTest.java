@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.crypto;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import ubicrypt.core.dto.Key;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class SegmentedAESGCMTest {
+    private static final int segmentSize = 1 << 10;
+    private final byte[] key = AESGCM.rndKey();
+
+    private byte[] encrypt(final byte[] bytes) throws Exception {
+        return IOUtils.toByteArray(SegmentedAESGCM.encryptIs(key, new ByteArrayInputStream(bytes), segmentSize));
+    }
+
+    private byte[] decrypt(final byte[] bytes) throws Exception {
+        return IOUtils.toByteArray(SegmentedAESGCM.decryptIs(key, new ByteArrayInputStream(bytes)));
+    }
+
+    private static byte[] random(final int size) {
+        final byte[] bytes = new byte[size];
+        new Random().nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void roundtrip() throws Exception {
+        for (final int size : new int[]{0, 1, segmentSize - 1, segmentSize, segmentSize * 3, segmentSize * 100 + 5}) {
+            final byte[] bytes = random(size);
+            assertThat(decrypt(encrypt(bytes))).isEqualTo(bytes);
+        }
+    }
+
+    @Test
+    public void tampered() throws Exception {
+        final byte[] encrypted = encrypt(random(segmentSize * 10));
+        encrypted[encrypted.length / 2] ^= 1;
+        try {
+            decrypt(encrypted);
+            fail("tampering not detected");
+        } catch (final IOException e) {
+        }
+    }
+
+    @Test
+    public void truncated() throws Exception {
+        final byte[] encrypted = encrypt(random(segmentSize * 10));
+        //cut at segment boundary, the final segment is missing
+        try {
+            decrypt(Arrays.copyOf(encrypted, 12 + (segmentSize + 16) * 5));
+            fail("truncation not detected");
+        } catch (final IOException e) {
+        }
+    }
+
+    @Test
+    public void keyFormat() throws Exception {
+        final Key key = new Key(AESGCM.rndKey());
+        key.setFormat(Key.Format.segmented);
+        final byte[] bytes = random(SegmentedAESGCM.defaultSegmentSize * 2 + 3);
+        final byte[] encrypted = IOUtils.toByteArray(AESGCM.encryptIs(key, new ByteArrayInputStream(bytes)));
+        assertThat(encrypted[0]).isEqualTo(SegmentedAESGCM.version);
+        assertThat(IOUtils.toByteArray(AESGCM.decryptIs(key, new ByteArrayInputStream(encrypted)))).isEqualTo(bytes);
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.dto;
+
+import org.junit.Test;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ubicrypt.core.Utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LocalConfigTest {
+    @Test
+    public void lookups() throws Exception {
+        final LocalConfig config = new LocalConfig();
+        final LocalFile file = new LocalFile();
+        file.setPath(Paths.get("a"));
+        config.getLocalFiles().add(file);
+        assertThat(config.findLocalFile(Paths.get("a"))).containsSame(file);
+        assertThat(config.findLocalFile(file.getId())).containsSame(file);
+        assertThat(config.findLocalFile(LocalFile.copy(file))).containsSame(file);
+
+        file.setPath(Paths.get("b"));
+        assertThat(config.findLocalFile(Paths.get("a"))).isEmpty();
+        assertThat(config.findLocalFile(Paths.get("b"))).containsSame(file);
+
+        final UUID oldId = file.getId();
+        final LocalFile other = new LocalFile();
+        other.setPath(Paths.get("c"));
+        file.copyFrom(other);
+        assertThat(config.findLocalFile(oldId)).isEmpty();
+        assertThat(config.findLocalFile(Paths.get("b"))).isEmpty();
+        assertThat(config.findLocalFile(Paths.get("c"))).containsSame(file);
+        assertThat(config.getLocalFiles()).hasSize(1);
+
+        config.getLocalFiles().remove(other);
+        assertThat(config.getLocalFiles()).isEmpty();
+        assertThat(config.findLocalFile(Paths.get("c"))).isEmpty();
+    }
+
+    @Test
+    public void samePath() throws Exception {
+        final LocalConfig config = new LocalConfig();
+        final LocalFile first = new LocalFile();
+        first.setPath(Paths.get("folder", "a"));
+        final LocalFile second = new LocalFile();
+        second.setPath(Paths.get("folder", "a"));
+        config.getLocalFiles().add(first);
+        config.getLocalFiles().add(second);
+        assertThat(config.findLocalFile(Paths.get("folder", "a"))).containsSame(first);
+
+        //handed over to the other member
+        first.setPath(Paths.get("folder", "b"));
+        assertThat(config.findLocalFile(Paths.get("folder", "a"))).containsSame(second);
+        assertThat(config.findLocalFile(Paths.get("folder", "b"))).containsSame(first);
+        config.getLocalFiles().remove(second);
+        assertThat(config.findLocalFile(Paths.get("folder", "a"))).isEmpty();
+        config.getLocalFiles().remove(first);
+        assertThat(config.findLocalFile(Paths.get("folder", "b"))).isEmpty();
+    }
+
+    @Test
+    public void unmarshall() throws Exception {
+        final LocalConfig config = new LocalConfig();
+        final LocalFile file = new LocalFile();
+        file.setPath(Paths.get("a"));
+        config.getLocalFiles().add(file);
+        final LocalConfig config2 = Utils.umarshall(Utils.marshall(config), LocalConfig.class);
+        assertThat(config2.getLocalFiles()).hasSize(1);
+        final LocalFile file2 = config2.findLocalFile(Paths.get("a")).get();
+        assertThat(file2).isEqualTo(file);
+        file2.setPath(Paths.get("b"));
+        assertThat(config2.findLocalFile(Paths.get("b"))).containsSame(file2);
+    }
+
+    @Test
+    public void changes() throws Exception {
+        final LocalConfig config = new LocalConfig();
+        final AtomicInteger changes = new AtomicInteger();
+        config.onChange(changes::incrementAndGet);
+        final LocalFile file = new LocalFile();
+        config.getLocalFiles().add(file);
+        assertThat(changes.get()).isEqualTo(1);
+        file.setSize(10);
+        assertThat(changes.get()).isEqualTo(2);
+        config.getTrackedFolders().add(Paths.get("a"));
+        assertThat(changes.get()).isEqualTo(3);
+        config.getTrackedFolders().add(Paths.get("a"));
+        assertThat(changes.get()).isEqualTo(3);
+        config.getRetiredDevices().addAll(Arrays.asList(1, 2));
+        assertThat(changes.get()).isEqualTo(5);
+
+        config.getLocalFiles().remove(file);
+        assertThat(changes.get()).isEqualTo(6);
+        file.setSize(20);
+        assertThat(changes.get()).isEqualTo(6);
+    }
+
+    @Test
+    public void vclockChanges() throws Exception {
+        final LocalConfig config = new LocalConfig();
+        final LocalFile file = new LocalFile();
+        config.getLocalFiles().add(file);
+        final AtomicInteger changes = new AtomicInteger();
+        config.onChange(changes::incrementAndGet);
+        file.getVclock().increment(1);
+        assertThat(changes.get()).isEqualTo(1);
+        //nothing to fold
+        file.getVclock().fold(config.getRetired());
+        assertThat(changes.get()).isEqualTo(1);
+
+        final VClock previous = file.getVclock();
+        file.setVclock(new VClock());
+        assertThat(changes.get()).isEqualTo(2);
+        file.getVclock().increment(2);
+        assertThat(changes.get()).isEqualTo(3);
+        previous.increment(1);
+        assertThat(changes.get()).isEqualTo(3);
+
+        final LocalFile other = new LocalFile();
+        other.getVclock().increment(3);
+        file.copyFrom(other);
+        assertThat(changes.get()).isEqualTo(4);
+        other.getVclock().increment(3);
+        assertThat(changes.get()).isEqualTo(4);
+        file.getVclock().increment(3);
+        assertThat(changes.get()).isEqualTo(5);
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.dto;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+
+import java.nio.file.Paths;
+
+import ubicrypt.core.Utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RemoteConfigTest {
+    @Test
+    public void findRemoteFile() throws Exception {
+        final RemoteConfig config = new RemoteConfig();
+        final RemoteFile file = new RemoteFile();
+        file.setPath(Paths.get("a"));
+        config.getRemoteFiles().add(file);
+        assertThat(config.getRemoteFiles().add(RemoteFile.createFrom(file))).isFalse();
+        assertThat(config.findRemoteFile(LocalFile.copy(file))).containsSame(file);
+        assertThat(config.getRemoteFiles().contains(LocalFile.copy(file))).isTrue();
+        assertThat(config.findRemoteFile(new LocalFile())).isEmpty();
+        config.getRemoteFiles().remove(LocalFile.copy(file));
+        assertThat(config.getRemoteFiles()).isEmpty();
+    }
+
+    @Test
+    public void wireCompatible() throws Exception {
+        final RemoteFile file = new RemoteFile();
+        file.setPath(Paths.get("a"));
+        //same shape as a config holding a plain set
+        final byte[] legacy = Utils.marshall(ImmutableMap.of("remoteFiles", ImmutableSet.of(file)));
+        final RemoteConfig config = Utils.umarshall(legacy, RemoteConfig.class);
+        assertThat(config.findRemoteFile(file.getId()).get().getPath()).isEqualTo(Paths.get("a"));
+
+        final RemoteConfig config2 = Utils.umarshall(Utils.marshall(config), RemoteConfig.class);
+        assertThat(config2.getRemoteFiles()).containsExactly(file);
+    }
+}
@@ -13,9 +13,18 @@
  */
 package ubicrypt.core.dto;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
 import org.junit.Test;
 
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ubicrypt.core.Utils;
+
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
 
 public class VClockTest {
     @Test
@@ -89,4 +98,107 @@ public class VClockTest {
 
 
     }
+
+    @Test
+    public void unorderedDevices() throws Exception {
+        final VClock v1 = new VClock();
+        v1.increment(7);
+        v1.increment(-3);
+        v1.increment(2);
+        final VClock v2 = new VClock();
+        v2.increment(2);
+        v2.increment(7);
+        v2.increment(-3);
+        assertThat(v1.compare(v2)).isEqualTo(VClock.Comparison.equal);
+        v2.increment(-3);
+        assertThat(v1.compare(v2)).isEqualTo(VClock.Comparison.older);
+        assertThat(v2.getMap()).containsExactly(entry(-3, 2L), entry(2, 1L), entry(7, 1L));
+    }
+
+    @Test
+    public void marshall() throws Exception {
+        final VClock v1 = new VClock();
+        v1.increment(2);
+        v1.increment(1);
+        v1.increment(1);
+        final byte[] bytes = Utils.marshall(v1);
+        assertThat(Utils.umarshall(bytes, VClock.class).compare(v1)).isEqualTo(VClock.Comparison.equal);
+        //same shape as the former map of counters
+        final byte[] legacy = Utils.marshall(ImmutableMap.of("map", ImmutableMap.of(1, new AtomicLong(2), 2, new AtomicLong(1))));
+        assertThat(Utils.umarshall(legacy, VClock.class).compare(v1)).isEqualTo(VClock.Comparison.equal);
+    }
+
+    @Test
+    public void retire() throws Exception {
+        final int retired = ThreadLocalRandom.current().nextInt(Integer.MIN_VALUE, -1000);
+        final RetiredDevices devices = new RetiredDevices();
+        final VClock v1 = new VClock();
+        v1.increment(retired);
+        v1.increment(retired);
+        v1.increment(1);
+        final VClock v2 = (VClock) v1.clone();
+        final VClock other = new VClock();
+        other.increment(2);
+        other.increment(3);
+        assertThat(v1.compare(other, devices)).isEqualTo(VClock.Comparison.conflict);
+
+        devices.retire(ImmutableSet.of(retired));
+        v1.fold(devices);
+        assertThat(v1.getMap()).containsOnlyKeys(1);
+        assertThat(v1.getBase()).isEqualTo(2L);
+        assertThat(v1.compare(v2, devices)).isEqualTo(VClock.Comparison.equal);
+        assertThat(v2.compare(v1, devices)).isEqualTo(VClock.Comparison.equal);
+        assertThat(v1.compare(other, devices)).isEqualTo(VClock.Comparison.conflict);
+        //without the retired set the unfolded clock reads as concurrent
+        assertThat(v2.compare(v1)).isNotEqualTo(VClock.Comparison.equal);
+        v2.increment(1);
+        assertThat(v2.compare(v1, devices)).isEqualTo(VClock.Comparison.newer);
+        //a retired device saving again still makes a newer version, counted apart from the base
+        v1.increment(devices.liveId(retired));
+        assertThat(v1.getBase()).isEqualTo(2L);
+        assertThat(v1.get(devices.liveId(retired))).isEqualTo(1);
+        assertThat(v1.compare(v2, devices)).isEqualTo(VClock.Comparison.conflict);
+        v1.increment(1);
+        assertThat(v1.compare(v2, devices)).isEqualTo(VClock.Comparison.newer);
+
+        final VClock v3 = Utils.umarshall(Utils.marshall(v1), VClock.class);
+        assertThat(v3.getBase()).isEqualTo(2L);
+        assertThat(v3.compare(v1, devices)).isEqualTo(VClock.Comparison.equal);
+    }
+
+    @Test
+    public void retiredConcurrent() throws Exception {
+        final int r1 = ThreadLocalRandom.current().nextInt(Integer.MIN_VALUE, -1000);
+        final int r2 = r1 + 1;
+        final RetiredDevices devices = new RetiredDevices();
+        final VClock base = new VClock();
+        base.increment(r1);
+        base.increment(r2);
+        base.increment(1);
+        devices.retire(ImmutableSet.of(r1, r2));
+        base.fold(devices);
+        //both retired devices come back and edit the same version
+        final VClock v1 = (VClock) base.clone();
+        final VClock v2 = (VClock) base.clone();
+        v1.increment(devices.liveId(r1));
+        v2.increment(devices.liveId(r2));
+        assertThat(v1.compare(base, devices)).isEqualTo(VClock.Comparison.newer);
+        assertThat(v1.compare(v2, devices)).isEqualTo(VClock.Comparison.conflict);
+        assertThat(v2.compare(v1, devices)).isEqualTo(VClock.Comparison.conflict);
+    }
+
+    @Test
+    public void missingDevice() throws Exception {
+        final VClock v1 = new VClock();
+        v1.increment(1);
+        v1.increment(1);
+        final VClock v2 = new VClock();
+        v2.increment(1);
+        v2.increment(2);
+        //more devices but an older counter
+        assertThat(v2.compare(v1)).isEqualTo(VClock.Comparison.conflict);
+        v2.increment(1);
+        assertThat(v2.compare(v1)).isEqualTo(VClock.Comparison.newer);
+        assertThat(v1.compare(v2)).isEqualTo(VClock.Comparison.older);
+    }
 }
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.provider;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+
+import ubicrypt.core.TestUtils;
+import ubicrypt.core.dto.Chunk;
+import ubicrypt.core.dto.RemoteConfig;
+import ubicrypt.core.provider.file.FileProvider;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ChunkStoreTest {
+    private FileProvider provider;
+
+    @Before
+    public void setUp() throws Exception {
+        TestUtils.deleteDirs();
+        TestUtils.createDirs();
+        provider = TestUtils.fileProvider(TestUtils.tmp);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TestUtils.deleteDirs();
+    }
+
+    @Test
+    public void dedup() throws Exception {
+        final ChunkStore store = new ChunkStore(provider);
+        final RemoteConfig remoteConfig = new RemoteConfig();
+        final byte[] bytes = new byte[6 << 20];
+        new Random().nextBytes(bytes);
+
+        final List<Chunk> chunks = store.put(remoteConfig, new ByteArrayInputStream(bytes)).toBlocking().single();
+        assertThat(chunks.size()).isGreaterThan(1);
+        final long stored = Files.list(TestUtils.tmp).count();
+        assertThat(stored).isEqualTo(remoteConfig.getChunks().size());
+        assertThat(IOUtils.toByteArray(store.get(chunks))).isEqualTo(bytes);
+
+        //same content, nothing new uploaded
+        final List<Chunk> chunks2 = store.put(remoteConfig, new ByteArrayInputStream(bytes)).toBlocking().single();
+        assertThat(chunks2).isEqualTo(chunks);
+        assertThat(Files.list(TestUtils.tmp).count()).isEqualTo(stored);
+
+        //still referenced by the second list
+        store.release(remoteConfig, chunks).toBlocking().single();
+        assertThat(Files.list(TestUtils.tmp).count()).isEqualTo(stored);
+        assertThat(IOUtils.toByteArray(store.get(chunks2))).isEqualTo(bytes);
+
+        store.release(remoteConfig, chunks2).toBlocking().single();
+        assertThat(Files.list(TestUtils.tmp).count()).isEqualTo(0);
+        assertThat(remoteConfig.getChunks()).isEmpty();
+    }
+
+    @Test
+    public void failedUpload() throws Exception {
+        final ChunkStore store = new ChunkStore(provider);
+        final RemoteConfig remoteConfig = new RemoteConfig();
+        final byte[] bytes = new byte[6 << 20];
+        new Random().nextBytes(bytes);
+        //source broken after some chunks have been uploaded
+        final InputStream is = new SequenceInputStream(new ByteArrayInputStream(bytes), new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("broken");
+            }
+        });
+
+        assertThatThrownBy(() -> store.put(remoteConfig, is).toBlocking().single()).hasRootCauseInstanceOf(IOException.class);
+        assertThat(remoteConfig.getChunks()).isEmpty();
+        assertThat(Files.list(TestUtils.tmp).count()).isEqualTo(0);
+    }
+}
@@ -20,9 +20,11 @@ import org.junit.Before;
 import org.junit.Test;
 import org.slf4j.Logger;
 
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -38,7 +40,9 @@ import ubicrypt.core.crypto.PGPService;
 import ubicrypt.core.dto.Key;
 import ubicrypt.core.dto.LocalConfig;
 import ubicrypt.core.dto.LocalFile;
+import ubicrypt.core.dto.RemoteBlob;
 import ubicrypt.core.dto.RemoteConfig;
+import ubicrypt.core.dto.RemoteFile;
 import ubicrypt.core.dto.UbiFile;
 import ubicrypt.core.dto.VClock;
 import ubicrypt.core.exp.NotFoundException;
@@ -112,6 +116,10 @@ public class RemoteRepositoryIT {
         assertThat(repo.save(new FileProvenience(localFile, localRepository)).toBlocking().last()).isTrue();
         assertThat(remoteConfig.getRemoteFiles()).hasSize(1);
         assertThat(IOUtils.readLines(repo.get(remoteConfig.getRemoteFiles().iterator().next()).toBlocking().first())).contains("ciao");
+        //legacy deflate, not recorded
+        assertThat(remoteConfig.getRemoteFiles().iterator().next().getCodec()).isNull();
+        //pruning not enabled, device activity not recorded
+        assertThat(remoteConfig.getDevices()).isEmpty();
         assertThat(progresses).hasSize(4);//2 put, 2 get
         Iterator<ProgressFile> it = progresses.iterator();
         ProgressFile next = it.next();
@@ -173,4 +181,66 @@ public class RemoteRepositoryIT {
 
 
     }
+
+    @Test
+    public void delta() throws Exception {
+        final PGPService pgp = new PGPService(PGPEC.encryptionKey(), new LocalConfig());
+        final RemoteConfig remoteConfig = new RemoteConfig();
+        Observable.OnSubscribe<AcquirerReleaser> acquirer = subscriber -> {
+            subscriber.onNext(new AcquirerReleaser(remoteConfig, empty()));
+            subscriber.onCompleted();
+        };
+        final FileProvider provider = TestUtils.fileProvider(TestUtils.tmp);
+        final ObjectSerializer ser = new ObjectSerializer(provider) {{
+            setPgpService(pgp);
+        }};
+        provider.getConfFile().setKey(new Key() {{
+            setType(UbiFile.KeyType.pgp);
+        }});
+        final RemoteRepository repo = new RemoteRepository(acquirer, provider, new ObjectIO<>(ser, provider.getConfFile(), RemoteConfig.class)) {{
+            setQueueLiner(new QueueLiner<>(1000));
+            setDelta(true);
+            setDeltaMinFileSize(0);
+            setDeltaMaxChain(2);
+        }};
+        repo.init();
+        final LocalRepository localRepository = new LocalRepository(TestUtils.tmp2);
+        final byte[] bytes = new byte[1 << 20];
+        new Random().nextBytes(bytes);
+        final LocalFile localFile = new LocalFile() {{
+            setPath(Paths.get("origin"));
+            setSize(bytes.length);
+        }};
+        localRepository.localConfig.getLocalFiles().add(localFile);
+
+        Utils.write(TestUtils.tmp2.resolve("origin"), bytes).toBlocking().last();
+        assertThat(repo.save(new FileProvenience(localFile, localRepository)).toBlocking().last()).isTrue();
+        final RemoteFile rfile = remoteConfig.getRemoteFiles().iterator().next();
+        assertThat(rfile.getSignature()).isNotNull();
+        assertThat(rfile.getDeltas()).isEmpty();
+
+        for (int i = 1; i <= 3; i++) {
+            bytes[i * 1000] ^= 1;
+            Utils.write(TestUtils.tmp2.resolve("origin"), bytes).toBlocking().last();
+            localFile.getVclock().increment(deviceId);
+            final RemoteBlob previous = rfile.getSignature();
+            assertThat(repo.save(new FileProvenience(localFile, localRepository)).toBlocking().last()).isTrue();
+            //rebased after max chain
+            assertThat(rfile.getDeltas()).hasSize(i % 3);
+            assertThat(IOUtils.toByteArray(repo.get(rfile).toBlocking().first())).isEqualTo(bytes);
+            //new signature aside, the previous one deleted once the config has been saved
+            assertThat(rfile.getSignature().getName()).isNotEqualTo(previous.getName());
+            assertThat(Files.exists(TestUtils.tmp.resolve(previous.getName()))).isFalse();
+        }
+
+        //signature lost, full upload
+        Files.delete(TestUtils.tmp.resolve(rfile.getSignature().getName()));
+        bytes[0] ^= 1;
+        Utils.write(TestUtils.tmp2.resolve("origin"), bytes).toBlocking().last();
+        localFile.getVclock().increment(deviceId);
+        assertThat(repo.save(new FileProvenience(localFile, localRepository)).toBlocking().last()).isTrue();
+        assertThat(rfile.getDeltas()).isEmpty();
+        assertThat(Files.exists(TestUtils.tmp.resolve(rfile.getSignature().getName()))).isTrue();
+        assertThat(IOUtils.toByteArray(repo.get(rfile).toBlocking().first())).isEqualTo(bytes);
+    }
 }
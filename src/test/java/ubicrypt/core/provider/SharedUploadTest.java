@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.provider;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.InflaterInputStream;
+
+import reactor.fn.tuple.Tuple;
+import reactor.fn.tuple.Tuple2;
+import rx.Observable;
+import ubicrypt.core.codec.Codec;
+import ubicrypt.core.crypto.AESGCM;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SharedUploadTest {
+
+    @Test
+    public void encryptOnce() throws Exception {
+        final AtomicInteger reads = new AtomicInteger();
+        final Observable<InputStream> plain = Observable.defer(() -> {
+            reads.incrementAndGet();
+            return Observable.just(new ByteArrayInputStream("ciao".getBytes()));
+        });
+        try (final SharedUpload shared = new SharedUpload()) {
+            final byte[] first = IOUtils.toByteArray(shared.ciphertext(Codec.deflateBest, plain, is -> is, is -> Tuple.of(Codec.deflateBest, Codec.deflateBest.encode(is))).toBlocking().single().getT2());
+            final byte[] second = IOUtils.toByteArray(shared.ciphertext(Codec.deflateBest, plain, is -> is, is -> Tuple.of(Codec.deflateBest, Codec.deflateBest.encode(is))).toBlocking().single().getT2());
+            assertThat(reads.get()).isEqualTo(1);
+            assertThat(second).isEqualTo(first);
+            assertThat(IOUtils.toString(new InflaterInputStream(AESGCM.decryptIs(shared.getKey().getBytes(), new ByteArrayInputStream(second))))).isEqualTo("ciao");
+        }
+    }
+
+    @Test
+    public void interrupted() throws Exception {
+        final AtomicInteger reads = new AtomicInteger();
+        final Observable<InputStream> plain = Observable.defer(() -> {
+            reads.incrementAndGet();
+            return Observable.just(new ByteArrayInputStream(new byte[1 << 16]));
+        });
+        try (final SharedUpload shared = new SharedUpload()) {
+            //not read till the end
+            shared.ciphertext(Codec.deflateBest, plain, is -> is, is -> Tuple.of(Codec.deflateBest, Codec.deflateBest.encode(is))).toBlocking().single().getT2().close();
+            final InputStream second = shared.ciphertext(Codec.deflateBest, plain, is -> is, is -> Tuple.of(Codec.deflateBest, Codec.deflateBest.encode(is))).toBlocking().single().getT2();
+            assertThat(reads.get()).isEqualTo(2);
+            assertThat(IOUtils.toByteArray(new InflaterInputStream(AESGCM.decryptIs(shared.getKey().getBytes(), second)))).hasSize(1 << 16);
+        }
+    }
+
+    @Test
+    public void incompressibleShared() throws Exception {
+        final AtomicInteger reads = new AtomicInteger();
+        final Observable<InputStream> plain = Observable.defer(() -> {
+            reads.incrementAndGet();
+            return Observable.just(new ByteArrayInputStream("ciao".getBytes()));
+        });
+        try (final SharedUpload shared = new SharedUpload()) {
+            final Tuple2<Codec, InputStream> first = shared.ciphertext(Codec.lz4, plain, is -> is, is -> Tuple.of(Codec.none, is)).toBlocking().single();
+            assertThat(first.getT1()).isEqualTo(Codec.none);
+            IOUtils.toByteArray(first.getT2());
+            //another codec, the content is already known incompressible
+            final Tuple2<Codec, InputStream> second = shared.ciphertext(Codec.deflateBest, plain, is -> is, is -> Tuple.of(Codec.deflateBest, is)).toBlocking().single();
+            assertThat(second.getT1()).isEqualTo(Codec.none);
+            assertThat(reads.get()).isEqualTo(1);
+            assertThat(IOUtils.toString(AESGCM.decryptIs(shared.getKey(), second.getT2()))).isEqualTo("ciao");
+        }
+    }
+}
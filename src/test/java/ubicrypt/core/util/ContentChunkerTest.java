@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.util;
+
+import com.google.common.primitives.Bytes;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ContentChunkerTest {
+
+    private static List<byte[]> chunks(final byte[] bytes) {
+        final List<byte[]> ret = new ArrayList<>();
+        new ContentChunker(new ByteArrayInputStream(bytes), 1 << 10, 1 << 12, 1 << 14).forEachRemaining(ret::add);
+        return ret;
+    }
+
+    @Test
+    public void reassemble() throws Exception {
+        final byte[] bytes = new byte[1 << 20];
+        new Random().nextBytes(bytes);
+        final List<byte[]> chunks = chunks(bytes);
+        assertThat(chunks.size()).isGreaterThan(1);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (final byte[] chunk : chunks) {
+            assertThat(chunk.length).isBetween(1, 1 << 14);
+            out.write(chunk);
+        }
+        assertThat(out.toByteArray()).isEqualTo(bytes);
+    }
+
+    @Test
+    public void empty() throws Exception {
+        assertThat(chunks(new byte[0])).isEmpty();
+    }
+
+    @Test
+    public void insertionShiftsFewChunks() throws Exception {
+        final byte[] bytes = new byte[1 << 20];
+        new Random().nextBytes(bytes);
+        final byte[] modified = Bytes.concat(new byte[]{1, 2, 3}, bytes);
+        final List<byte[]> original = chunks(bytes);
+        final List<byte[]> shifted = chunks(modified);
+        final long common = shifted.stream()
+                .filter(chunk -> original.stream().anyMatch(orig -> Arrays.equals(orig, chunk)))
+                .count();
+        assertThat(common).isGreaterThan(original.size() - 3);
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.util;
+
+import com.google.common.primitives.Bytes;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DeltaEncoderTest {
+    private static final int blockSize = 1 << 10;
+
+    private static BlockSignature signature(final byte[] bytes) throws Exception {
+        final BlockSignature.Builder builder = new BlockSignature.Builder(blockSize);
+        builder.write(bytes);
+        //through the wire format
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        builder.build().write(out);
+        return BlockSignature.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private static byte[] delta(final byte[] base, final byte[] target) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DeltaEncoder.encode(signature(base), new ByteArrayInputStream(target), out);
+        return out.toByteArray();
+    }
+
+    private static byte[] patch(final byte[] base, final byte[] delta) throws Exception {
+        final Path file = Files.createTempFile("ubicrypt", ".base");
+        try (final FileChannel channel = FileChannel.open(Files.write(file, base))) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            DeltaPatcher.apply(channel, new ByteArrayInputStream(delta), out);
+            return out.toByteArray();
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static byte[] random(final int size) {
+        final byte[] bytes = new byte[size];
+        new Random().nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void inPlaceChange() throws Exception {
+        final byte[] base = random(1 << 20);
+        final byte[] target = Arrays.copyOf(base, base.length);
+        target[1000] ^= 1;
+        target[500000] ^= 1;
+        final byte[] delta = delta(base, target);
+        assertThat(delta.length).isLessThan(4 * blockSize);
+        assertThat(patch(base, delta)).isEqualTo(target);
+    }
+
+    @Test
+    public void insertion() throws Exception {
+        final byte[] base = random(1 << 20);
+        final byte[] target = Bytes.concat(Arrays.copyOf(base, 3333), new byte[]{1, 2, 3}, Arrays.copyOfRange(base, 3333, base.length), random(100));
+        final byte[] delta = delta(base, target);
+        assertThat(delta.length).isLessThan(4 * blockSize);
+        assertThat(patch(base, delta)).isEqualTo(target);
+    }
+
+    @Test
+    public void unrelated() throws Exception {
+        final byte[] base = random(1 << 16);
+        final byte[] target = random((1 << 16) + 17);
+        assertThat(patch(base, delta(base, target))).isEqualTo(target);
+        assertThat(patch(base, delta(base, new byte[0]))).isEmpty();
+        assertThat(patch(new byte[0], delta(new byte[0], target))).isEqualTo(target);
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.util;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MergeJoinTest {
+    @Test
+    public void groups() throws Exception {
+        final List<Iterator<Integer>> sources = ImmutableList.of(
+                ImmutableList.of(10, 30, 50).iterator(),
+                ImmutableList.of(21, 31).iterator(),
+                Collections.<Integer>emptyIterator(),
+                ImmutableList.of(33, 53, 73).iterator());
+        final MergeJoin<Integer, Integer> join = new MergeJoin<>(sources, i -> i / 10);
+        assertThat(join.next()).containsExactly(10);
+        assertThat(join.next()).containsExactly(21);
+        assertThat(join.next()).containsExactly(30, 31, 33);
+        assertThat(join.next()).containsExactly(50, 53);
+        assertThat(join.next()).containsExactly(73);
+        assertThat(join.hasNext()).isFalse();
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2016 Giancarlo Frison <giancarlo@gfrison.com>
+ * <p>
+ * Licensed under the UbiCrypt License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://github.com/gfrison/ubicrypt/LICENSE.md
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ubicrypt.core.util;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static ubicrypt.core.util.Pipeline.Step.compress;
+import static ubicrypt.core.util.Pipeline.Step.encrypt;
+import static ubicrypt.core.util.Pipeline.Step.read;
+
+public class PipelineTest {
+
+    @Test
+    public void stages() throws Exception {
+        final Pipeline pipeline = new Pipeline(true, 2, 2);
+        for (final int size : new int[]{0, 10, BufferPool.defaultBufferSize, BufferPool.defaultBufferSize * 5 + 7}) {
+            final byte[] bytes = new byte[size];
+            new Random().nextBytes(bytes);
+            final InputStream is = pipeline.stage(encrypt, pipeline.stage(compress, pipeline.stage(read, new ByteArrayInputStream(bytes))));
+            assertThat(IOUtils.toByteArray(is)).isEqualTo(bytes);
+            is.close();
+        }
+        assertThat(pipeline.getStages().get(read).getBytes()).isEqualTo(BufferPool.defaultBufferSize * 6 + 17);
+        assertThat(pipeline.getStages().get(encrypt).getQueueDepth()).isEqualTo(0);
+    }
+
+    @Test
+    public void error() throws Exception {
+        final Pipeline pipeline = new Pipeline(true, 1, 1);
+        final InputStream broken = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("broken");
+            }
+        };
+        try {
+            IOUtils.toByteArray(pipeline.stage(compress, pipeline.stage(read, broken)));
+            fail("error not propagated");
+        } catch (final IOException e) {
+            assertThat(e.getMessage()).isEqualTo("broken");
+        }
+    }
+
+    @Test
+    public void closeEarly() throws Exception {
+        final Pipeline pipeline = new Pipeline(true, 1, 1);
+        final InputStream is = pipeline.stage(read, new ByteArrayInputStream(new byte[BufferPool.defaultBufferSize * 10]));
+        assertThat(is.read()).isEqualTo(0);
+        is.close();
+        //the single thread of the stage is available again
+        final InputStream next = pipeline.stage(read, new ByteArrayInputStream(new byte[]{1, 2}));
+        assertThat(IOUtils.toByteArray(next)).isEqualTo(new byte[]{1, 2});
+    }
+
+    @Test
+    public void notRead() throws Exception {
+        final Pipeline pipeline = new Pipeline(true, 1, 1);
+        //never read nor closed, as when the provider fails before reading
+        pipeline.stage(read, new ByteArrayInputStream(new byte[BufferPool.defaultBufferSize * 10]));
+        assertThat(pipeline.getStages().get(read).getActive()).isEqualTo(0);
+        final InputStream next = pipeline.stage(read, new ByteArrayInputStream(new byte[]{1, 2}));
+        assertThat(IOUtils.toByteArray(next)).isEqualTo(new byte[]{1, 2});
+    }
+}